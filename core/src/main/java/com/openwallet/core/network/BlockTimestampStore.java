@@ -0,0 +1,88 @@
+package com.openwallet.core.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import javax.annotation.Nullable;
+
+import static com.openwallet.core.Preconditions.checkArgument;
+
+/**
+ * Stores the timestamps of the blocks of a coin in a file of fixed size records, so that they do
+ * not need to be requested again from the server after a restart.
+ *
+ * The record of a block height is at offset height * 4 and holds the block time in seconds as an
+ * unsigned 32 bits integer. A zero means that the timestamp is unknown. Heights that were never
+ * written are left as holes in the file, which most file systems do not allocate.
+ *
+ * @author John L. Jegutanis
+ */
+public class BlockTimestampStore {
+    private static final Logger log = LoggerFactory.getLogger(BlockTimestampStore.class);
+
+    private static final int RECORD_SIZE = 4;
+    private static final long MAX_TIMESTAMP = 0xFFFFFFFFL;
+
+    private final File file;
+    private RandomAccessFile store;
+    private final byte[] record = new byte[RECORD_SIZE];
+
+    public BlockTimestampStore(File file) throws IOException {
+        this.file = file;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        store = new RandomAccessFile(file, "rw");
+    }
+
+    /**
+     * Get the timestamp in seconds of the block at the height or null if it is unknown
+     */
+    @Nullable
+    public synchronized Long get(int height) {
+        checkArgument(height >= 0, "Invalid height");
+        if (store == null) return null;
+        long offset = (long) height * RECORD_SIZE;
+        try {
+            if (offset + RECORD_SIZE > store.length()) return null;
+            store.seek(offset);
+            store.readFully(record);
+        } catch (IOException e) {
+            log.warn("Error reading block timestamp from {}", file, e);
+            return null;
+        }
+        long timestamp = ((record[0] & 0xFFL) << 24) | ((record[1] & 0xFFL) << 16) |
+                ((record[2] & 0xFFL) << 8) | (record[3] & 0xFFL);
+        return timestamp != 0 ? timestamp : null;
+    }
+
+    public synchronized void put(int height, long timestamp) {
+        checkArgument(height >= 0, "Invalid height");
+        if (store == null || timestamp <= 0 || timestamp > MAX_TIMESTAMP) return;
+        record[0] = (byte) (timestamp >>> 24);
+        record[1] = (byte) (timestamp >>> 16);
+        record[2] = (byte) (timestamp >>> 8);
+        record[3] = (byte) timestamp;
+        try {
+            store.seek((long) height * RECORD_SIZE);
+            store.write(record);
+        } catch (IOException e) {
+            log.warn("Error writing block timestamp to {}", file, e);
+        }
+    }
+
+    public synchronized void close() {
+        if (store == null) return;
+        try {
+            store.close();
+        } catch (IOException e) {
+            log.warn("Error closing block timestamp store", e);
+        }
+        store = null;
+    }
+}
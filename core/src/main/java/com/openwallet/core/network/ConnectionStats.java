@@ -0,0 +1,45 @@
+package com.openwallet.core.network;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.Map;
+
+/**
+ * The traffic and the latencies of the calls of a connection to a server, at a point in time
+ *
+ * @author John L. Jegutanis
+ */
+public class ConnectionStats {
+    private final long bytesReceived;
+    private final ImmutableSortedMap<String, LatencyHistogram> latencies;
+
+    public ConnectionStats(long bytesReceived, Map<String, LatencyHistogram> latencies) {
+        this.bytesReceived = bytesReceived;
+        ImmutableSortedMap.Builder<String, LatencyHistogram> builder = ImmutableSortedMap.naturalOrder();
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().copy());
+        }
+        this.latencies = builder.build();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Get the latency histograms by call method
+     */
+    public ImmutableSortedMap<String, LatencyHistogram> getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("bytes received: ").append(bytesReceived);
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            sb.append('\n').append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+}
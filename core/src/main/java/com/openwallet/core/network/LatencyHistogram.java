@@ -0,0 +1,113 @@
+package com.openwallet.core.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.openwallet.core.Preconditions.checkArgument;
+
+/**
+ * A histogram of latencies in milliseconds that is safe to update from several threads.
+ *
+ * The latencies are counted in buckets of powers of two, the bucket i counts the latencies that
+ * are less than 2^i milliseconds and at least the upper bound of the previous bucket. The last
+ * bucket counts everything above that.
+ *
+ * @author John L. Jegutanis
+ */
+public class LatencyHistogram {
+    // The last bucket starts at 2^15 ms, about 33 seconds
+    public static final int BUCKETS = 17;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(BUCKETS);
+    }
+
+    private LatencyHistogram(LatencyHistogram other) {
+        buckets = new AtomicLongArray(BUCKETS);
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, other.buckets.get(i));
+        }
+        count.set(other.count.get());
+        total.set(other.total.get());
+        max.set(other.max.get());
+    }
+
+    public void record(long millis) {
+        if (millis < 0) millis = 0;
+        buckets.incrementAndGet(getBucket(millis));
+        count.incrementAndGet();
+        total.addAndGet(millis);
+        long currentMax;
+        do {
+            currentMax = max.get();
+        } while (millis > currentMax && !max.compareAndSet(currentMax, millis));
+    }
+
+    static int getBucket(long millis) {
+        // The number of bits needed for the value is the index of the first bucket above it
+        int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * Get the upper bound in milliseconds of the latencies counted in the bucket, or
+     * Long.MAX_VALUE for the last bucket
+     */
+    public static long getBucketUpperBound(int bucket) {
+        checkArgument(bucket >= 0 && bucket < BUCKETS, "Invalid bucket");
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    /**
+     * Get an upper bound of the percentile, for example 0.5 for the median. The result is the upper
+     * bound of the bucket that contains the percentile or the maximum latency if that is less.
+     */
+    public long getPercentile(double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 1, "Invalid percentile");
+        long n = count.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return Math.min(getBucketUpperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Get a copy of the current counts that is not affected by later updates
+     */
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + getMean() + "ms p50=" + getPercentile(0.5) +
+                "ms p90=" + getPercentile(0.9) + "ms p99=" + getPercentile(0.99) +
+                "ms max=" + getMax() + "ms";
+    }
+}
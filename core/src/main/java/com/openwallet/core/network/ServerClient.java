@@ -9,22 +9,23 @@ import com.openwallet.core.wallet.families.bitcoin.BitAddress;
 import com.openwallet.core.wallet.families.bitcoin.BitBlockchainConnection;
 import com.openwallet.core.wallet.families.bitcoin.BitTransaction;
 import com.openwallet.core.wallet.families.bitcoin.BitTransactionEventListener;
+import com.openwallet.stratumj.JsonReader;
 import com.openwallet.stratumj.ServerAddress;
 import com.openwallet.stratumj.StratumClient;
 import com.openwallet.stratumj.messages.CallMessage;
 import com.openwallet.stratumj.messages.ResultMessage;
 import com.google.common.collect.ImmutableList;
-import com.google.common.io.Files;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Service;
+import com.google.common.util.concurrent.SettableFuture;
 
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.TransactionOutPoint;
 import org.bitcoinj.core.Utils;
 import org.bitcoinj.utils.ListenerRegistration;
-import org.bitcoinj.utils.Threading;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -33,15 +34,19 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -57,22 +62,31 @@ public class ServerClient implements BitBlockchainConnection {
 
     private static final ScheduledThreadPoolExecutor connectionExec;
     private static final String CLIENT_PROTOCOL = "0.9";
+    private static final String TX_CACHE_FILE = "transactions.cache";
+    private static final String BLOCK_TIMES_FILE = "block_times.dat";
 
     static {
         connectionExec = new ScheduledThreadPoolExecutor(1);
         // FIXME, causing a crash in old Androids
 //        connectionExec.setRemoveOnCancelPolicy(true);
     }
-    private static final Random RANDOM = new Random();
 
     private static final long MAX_WAIT = 16;
     private static final long CONNECTION_STABILIZATION = 30;
+    // A call that timed out is sent again this many times at most
+    private static final int MAX_CALL_RETRIES = 2;
+    // After this many timeouts without any reply in between, the server is considered stalled
+    private static final int MAX_CONSECUTIVE_TIMEOUTS = 3;
     private final ConnectivityHelper connectivityHelper;
 
     private CoinType type;
+    // Runs the callbacks of this coin in order, in parallel with the other coins
+    private final Executor syncExecutor;
     private final ImmutableList<ServerAddress> addresses;
     private final HashSet<ServerAddress> failedAddresses;
+    private final ServerSelector serverSelector;
     private ServerAddress lastServerAddress;
+    private long connectionStartedAt;
     private StratumClient stratumClient;
     private long retrySeconds = 0;
     private long reconnectAt = 0;
@@ -80,6 +94,30 @@ public class ServerClient implements BitBlockchainConnection {
 
     private File cacheDir;
     private int cacheSize;
+    @Nullable private TransactionCache txCache;
+    // Set when the transaction cache could not be opened, until a new cache directory is set
+    private volatile boolean txCacheFailed = false;
+    @Nullable private BlockTimestampStore blockTimestampStore;
+    // Set when the block timestamps store could not be opened, until a new cache directory is set
+    private boolean blockTimestampStoreFailed = false;
+
+    // Requests that are waiting for a reply, new requesters attach to them instead of asking again
+    private final ConcurrentHashMap<Sha256Hash, ListenableFuture<BitTransaction>> transactionsInFlight =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, ListenableFuture<BlockHeader>> blocksInFlight =
+            new ConcurrentHashMap<>();
+
+    // One subscription handler per listener, so that subscribing again does not add handlers
+    private final ConcurrentHashMap<TransactionEventListener<BitTransaction>,
+            StratumClient.SubscribeResultHandler> blockchainHeaderHandlers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TransactionEventListener<BitTransaction>,
+            StratumClient.SubscribeResultHandler> addressHandlers = new ConcurrentHashMap<>();
+
+    // The bytes received by the previous stratum clients and the latencies of the calls by method
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final ConcurrentHashMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    // Timeouts since the last reply of the server
+    private final AtomicInteger consecutiveTimeouts = new AtomicInteger();
 
     // TODO, only one is supported at the moment. Change when accounts are supported.
     private transient CopyOnWriteArrayList<ListenerRegistration<ConnectionEventListener>> eventListeners;
@@ -89,7 +127,16 @@ public class ServerClient implements BitBlockchainConnection {
         connectionExec.schedule(r, delay, unit);
     }
 
+    // The timer thread is shared by all the coins, so the timer tasks only hand over the work to
+    // the executor of this coin
     private Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            syncExecutor.execute(reconnect);
+        }
+    };
+
+    private Runnable reconnect = new Runnable() {
         @Override
         public void run() {
             if (!stopped) {
@@ -112,6 +159,13 @@ public class ServerClient implements BitBlockchainConnection {
     };
 
     private Runnable connectionCheckTask = new Runnable() {
+        @Override
+        public void run() {
+            syncExecutor.execute(connectionCheck);
+        }
+    };
+
+    private Runnable connectionCheck = new Runnable() {
         @Override
         public void run() {
             if (isActivelyConnected()) {
@@ -126,7 +180,10 @@ public class ServerClient implements BitBlockchainConnection {
         public void running() {
             // Check if connection is up as this event is fired even if there is no connection
             if (isActivelyConnected()) {
-                log.info("{} client connected to {}", type.getName(), lastServerAddress);
+                long connectionTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectionStartedAt);
+                serverSelector.recordLatency(lastServerAddress, connectionTime);
+                consecutiveTimeouts.set(0);
+                log.info("{} client connected to {} in {}ms", type.getName(), lastServerAddress, connectionTime);
                 broadcastOnConnection();
 
                 // Test that the connection is stable
@@ -139,8 +196,12 @@ public class ServerClient implements BitBlockchainConnection {
             log.info("{} client stopped", type.getName());
             broadcastOnDisconnect();
             failedAddresses.add(lastServerAddress);
+            if (!stopped) serverSelector.recordFailure(lastServerAddress);
             lastServerAddress = null;
-            stratumClient = null;
+            if (stratumClient != null) {
+                bytesReceived.addAndGet(stratumClient.getBytesReceived());
+                stratumClient = null;
+            }
             // Try to restart
             if (!stopped) {
                 log.info("Reconnecting {} in {} seconds", type.getName(), retrySeconds);
@@ -161,7 +222,9 @@ public class ServerClient implements BitBlockchainConnection {
         eventListeners = new CopyOnWriteArrayList<ListenerRegistration<ConnectionEventListener>>();
         failedAddresses = new HashSet<ServerAddress>();
         type = coinAddress.getType();
+        syncExecutor = SyncScheduler.getExecutor(type);
         addresses = ImmutableList.copyOf(coinAddress.getAddresses());
+        serverSelector = new ServerSelector(addresses);
 
         createStratumClient();
     }
@@ -170,7 +233,8 @@ public class ServerClient implements BitBlockchainConnection {
         checkState(stratumClient == null);
         lastServerAddress = getServerAddress();
         stratumClient = new StratumClient(lastServerAddress);
-        stratumClient.addListener(serviceListener, Threading.USER_THREAD);
+        connectionStartedAt = System.nanoTime();
+        stratumClient.addListener(serviceListener, syncExecutor);
         return stratumClient;
     }
 
@@ -181,13 +245,8 @@ public class ServerClient implements BitBlockchainConnection {
         }
         retrySeconds = Math.min(Math.max(1, retrySeconds * 2), MAX_WAIT);
 
-        ServerAddress address;
-        // Not the most efficient, but does the job
-        while (true) {
-            address = addresses.get(RANDOM.nextInt(addresses.size()));
-            if (!failedAddresses.contains(address)) break;
-        }
-        return address;
+        // Prefer the fastest server that did not fail recently
+        return serverSelector.select(failedAddresses);
     }
 
     public void startAsync() {
@@ -222,6 +281,7 @@ public class ServerClient implements BitBlockchainConnection {
         connectionExec.remove(reconnectTask);
         if (stratumClient != null) {
             stratumClient.stopAsync();
+            bytesReceived.addAndGet(stratumClient.getBytesReceived());
             stratumClient = null;
         }
     }
@@ -261,11 +321,12 @@ public class ServerClient implements BitBlockchainConnection {
 
     /**
      * Adds an event listener object. Methods on this object are called when something interesting happens,
-     * like new connection to a server. The listener is executed by {@link org.bitcoinj.utils.Threading#USER_THREAD}.
+     * like new connection to a server. The listener is executed by the executor of the coin, see
+     * {@link SyncScheduler}.
      */
     @Override
     public void addEventListener(ConnectionEventListener listener) {
-        addEventListener(listener, Threading.USER_THREAD);
+        addEventListener(listener, syncExecutor);
     }
 
     /**
@@ -314,27 +375,68 @@ public class ServerClient implements BitBlockchainConnection {
         return new BlockHeader(type, json.getLong("timestamp"), json.getInt("block_height"));
     }
 
-    @Override
-    public void subscribeToBlockchain(final TransactionEventListener listener) {
-        checkNotNull(stratumClient);
+    private StratumClient.SubscribeResultHandler getBlockchainHeaderHandler(
+            final TransactionEventListener<BitTransaction> listener) {
+        StratumClient.SubscribeResultHandler handler = blockchainHeaderHandlers.get(listener);
+        if (handler != null) return handler;
 
-        // TODO use TransactionEventListener directly because the current solution leaks memory
-        StratumClient.SubscribeResultHandler blockchainHeaderHandler = new StratumClient.SubscribeResultHandler() {
+        handler = new StratumClient.SubscribeResultHandler() {
             @Override
             public void handle(CallMessage message) {
                 try {
                     BlockHeader header = parseBlockHeader(type, message.getParams().getJSONObject(0));
+                    storeBlockTimestamp(header);
                     listener.onNewBlock(header);
                 } catch (JSONException e) {
                     log.error("Unexpected JSON format", e);
                 }
             }
         };
+        StratumClient.SubscribeResultHandler previous =
+                blockchainHeaderHandlers.putIfAbsent(listener, handler);
+        return previous != null ? previous : handler;
+    }
+
+    private StratumClient.SubscribeResultHandler getAddressHandler(
+            final TransactionEventListener<BitTransaction> listener) {
+        StratumClient.SubscribeResultHandler handler = addressHandlers.get(listener);
+        if (handler != null) return handler;
+
+        handler = new StratumClient.SubscribeResultHandler() {
+            @Override
+            public void handle(CallMessage message) {
+                try {
+                    AbstractAddress address = BitAddress.from(type, message.getParams().getString(0));
+                    AddressStatus status;
+                    if (message.getParams().isNull(1)) {
+                        status = new AddressStatus(address, null);
+                    }
+                    else {
+                        status = new AddressStatus(address, message.getParams().getString(1));
+                    }
+                    listener.onAddressStatusUpdate(status);
+                } catch (AddressMalformedException e) {
+                    log.error("Address subscribe sent a malformed address", e);
+                } catch (JSONException e) {
+                    log.error("Unexpected JSON format", e);
+                }
+            }
+        };
+        StratumClient.SubscribeResultHandler previous = addressHandlers.putIfAbsent(listener, handler);
+        return previous != null ? previous : handler;
+    }
+
+    @Override
+    public void subscribeToBlockchain(final TransactionEventListener<BitTransaction> listener) {
+        checkNotNull(stratumClient);
+
+        StratumClient.SubscribeResultHandler blockchainHeaderHandler =
+                getBlockchainHeaderHandler(listener);
 
         log.info("Going to subscribe to block chain headers");
 
         final CallMessage callMessage = new CallMessage("blockchain.headers.subscribe", (List)null);
-        ListenableFuture<ResultMessage> reply = stratumClient.subscribe(callMessage, blockchainHeaderHandler);
+        ListenableFuture<ResultMessage> reply = subscribe(callMessage, blockchainHeaderHandler);
 
         Futures.addCallback(reply, new FutureCallback<ResultMessage>() {
 
@@ -342,6 +444,7 @@ public class ServerClient implements BitBlockchainConnection {
             public void onSuccess(ResultMessage result) {
                 try {
                     BlockHeader header = parseBlockHeader(type, result.getResult().getJSONObject(0));
+                    storeBlockTimestamp(header);
                     listener.onNewBlock(header);
                 } catch (JSONException e) {
                     log.error("Unexpected JSON format", e);
@@ -357,55 +460,47 @@ public class ServerClient implements BitBlockchainConnection {
                             type.getName(), t.getMessage());
                 }
             }
-        }, Threading.USER_THREAD);
+        }, syncExecutor);
     }
 
     @Override
-    public void subscribeToAddresses(List<AbstractAddress> addresses, final TransactionEventListener<BitTransaction> listener) {
-        checkNotNull(stratumClient);
+    public void subscribeToAddresses(final List<AbstractAddress> addresses,
+                                     final TransactionEventListener<BitTransaction> listener) {
+        subscribeToAddresses(addresses, listener, 0);
+    }
 
-        final CallMessage callMessage = new CallMessage("blockchain.address.subscribe", (List)null);
+    private void subscribeToAddresses(final List<AbstractAddress> addresses,
+                                      final TransactionEventListener<BitTransaction> listener,
+                                      final int attempt) {
+        checkNotNull(stratumClient);
 
-        // TODO use TransactionEventListener directly because the current solution leaks memory
-        StratumClient.SubscribeResultHandler addressHandler = new StratumClient.SubscribeResultHandler() {
-            @Override
-            public void handle(CallMessage message) {
-                try {
-                    AbstractAddress address = BitAddress.from(type, message.getParams().getString(0));
-                    AddressStatus status;
-                    if (message.getParams().isNull(1)) {
-                        status = new AddressStatus(address, null);
-                    }
-                    else {
-                        status = new AddressStatus(address, message.getParams().getString(1));
-                    }
-                    listener.onAddressStatusUpdate(status);
-                } catch (AddressMalformedException e) {
-                    log.error("Address subscribe sent a malformed address", e);
-                } catch (JSONException e) {
-                    log.error("Unexpected JSON format", e);
-                }
-            }
-        };
+        StratumClient.SubscribeResultHandler addressHandler = getAddressHandler(listener);
 
-        for (final AbstractAddress address : addresses) {
+        // Subscribe to all the addresses with a single pipelined write
+        List<CallMessage> callMessages = new ArrayList<>(addresses.size());
+        for (AbstractAddress address : addresses) {
             log.debug("Going to subscribe to {}", address);
-            callMessage.setParam(address.toString());
+            callMessages.add(new CallMessage("blockchain.address.subscribe", address.toString()));
+        }
 
-            ListenableFuture<ResultMessage> reply = stratumClient.subscribe(callMessage, addressHandler);
+        List<ListenableFuture<ResultMessage>> replies =
+                subscribe(callMessages, addressHandler);
 
-            Futures.addCallback(reply, new FutureCallback<ResultMessage>() {
+        final AddressStatusBatch batch = new AddressStatusBatch(listener, attempt);
+        for (int i = 0; i < addresses.size(); i++) {
+            final AbstractAddress address = addresses.get(i);
+            final CallMessage callMessage = callMessages.get(i);
 
+            // Runs on the thread that reads the replies, the batch is passed to the listener later
+            Futures.addCallback(replies.get(i), new FutureCallback<ResultMessage>() {
                 @Override
                 public void onSuccess(ResultMessage result) {
-                    AddressStatus status = null;
                     try {
                         if (result.getResult().isNull(0)) {
-                            status = new AddressStatus(address, null);
+                            batch.add(new AddressStatus(address, null));
                         } else {
-                            status = new AddressStatus(address, result.getResult().getString(0));
+                            batch.add(new AddressStatus(address, result.getResult().getString(0)));
                         }
-                        listener.onAddressStatusUpdate(status);
                     } catch (JSONException e) {
                         log.error("Unexpected JSON format", e);
                     }
@@ -418,69 +513,141 @@ public class ServerClient implements BitBlockchainConnection {
                     } else {
                         log.error("Could not get reply for {} address subscribe {}: ",
                                 type.getName(), address, t.getMessage());
+                        batch.addFailed(address, t);
                     }
                 }
-            }, Threading.USER_THREAD);
+            }, MoreExecutors.sameThreadExecutor());
+        }
+    }
+
+    /**
+     * Collects the replies of an address subscription burst. The replies that arrive together,
+     * like the ones decoded from a single read, are passed to the listener in one call from the
+     * sync executor, without waiting for the slower replies. The subscriptions that timed out
+     * are sent again.
+     */
+    private class AddressStatusBatch implements Runnable {
+        private final TransactionEventListener<BitTransaction> listener;
+        private final int attempt;
+        private List<AddressStatus> statuses = new ArrayList<>();
+        private List<AbstractAddress> failed = new ArrayList<>();
+        private List<Throwable> failures = new ArrayList<>();
+        private boolean scheduled = false;
+
+        AddressStatusBatch(TransactionEventListener<BitTransaction> listener, int attempt) {
+            this.listener = listener;
+            this.attempt = attempt;
+        }
+
+        synchronized void add(AddressStatus status) {
+            statuses.add(status);
+            schedule();
+        }
+
+        synchronized void addFailed(AbstractAddress address, Throwable t) {
+            failed.add(address);
+            failures.add(t);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!scheduled) {
+                scheduled = true;
+                syncExecutor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            List<AddressStatus> readyStatuses;
+            List<AbstractAddress> readyFailed;
+            List<Throwable> readyFailures;
+            synchronized (this) {
+                readyStatuses = statuses;
+                readyFailed = failed;
+                readyFailures = failures;
+                statuses = new ArrayList<>();
+                failed = new ArrayList<>();
+                failures = new ArrayList<>();
+                scheduled = false;
+            }
+            if (!readyStatuses.isEmpty()) listener.onAddressStatusesUpdate(readyStatuses);
+
+            List<AbstractAddress> retries = new ArrayList<>(readyFailed.size());
+            for (int i = 0; i < readyFailed.size(); i++) {
+                if (shouldRetry(readyFailures.get(i), attempt)) retries.add(readyFailed.get(i));
+            }
+            if (!retries.isEmpty() && isActivelyConnected()) {
+                subscribeToAddresses(retries, listener, attempt + 1);
+            }
         }
     }
 
     @Override
     public void getUnspentTx(final AddressStatus status,
                              final BitTransactionEventListener listener) {
+        getUnspentTx(status, listener, 0);
+    }
+
+    private void getUnspentTx(final AddressStatus status,
+                              final BitTransactionEventListener listener, final int attempt) {
         checkNotNull(stratumClient);
 
         CallMessage message = new CallMessage("blockchain.address.listunspent",
                 Arrays.asList(status.getAddress().toString()));
-        final ListenableFuture<ResultMessage> result = stratumClient.call(message);
+        final ListenableFuture<ResultMessage> result = call(message);
 
         Futures.addCallback(result, new FutureCallback<ResultMessage>() {
 
             @Override
             public void onSuccess(ResultMessage result) {
-                JSONArray resTxs = result.getResult();
-                ImmutableList.Builder<UnspentTx> utxes = ImmutableList.builder();
+                List<UnspentTx> utxes;
                 try {
-                    for (int i = 0; i < resTxs.length(); i++) {
-                        utxes.add(new UnspentTx(resTxs.getJSONObject(i)));
-                    }
+                    utxes = UnspentTx.unspentFromReader(result.getResultReader());
                 } catch (JSONException e) {
                     onFailure(e);
                     return;
                 }
-                listener.onUnspentTransactionUpdate(status, utxes.build());
+                listener.onUnspentTransactionUpdate(status, utxes);
             }
 
             @Override
             public void onFailure(Throwable t) {
                 log.error("Could not get reply for blockchain.address.listunspent", t);
+                if (shouldRetry(t, attempt)) {
+                    getUnspentTx(status, listener, attempt + 1);
+                }
             }
-        }, Threading.USER_THREAD);
+        }, syncExecutor);
     }
 
     @Override
     public void getHistoryTx(final AddressStatus status,
                              final TransactionEventListener<BitTransaction> listener) {
+        getHistoryTx(status, listener, 0);
+    }
+
+    private void getHistoryTx(final AddressStatus status,
+                              final TransactionEventListener<BitTransaction> listener,
+                              final int attempt) {
         checkNotNull(stratumClient);
 
         final CallMessage message = new CallMessage("blockchain.address.get_history",
                 Arrays.asList(status.getAddress().toString()));
-        final ListenableFuture<ResultMessage> result = stratumClient.call(message);
+        final ListenableFuture<ResultMessage> result = call(message);
 
         Futures.addCallback(result, new FutureCallback<ResultMessage>() {
 
             @Override
             public void onSuccess(ResultMessage result) {
-                JSONArray resTxs = result.getResult();
-                ImmutableList.Builder<HistoryTx> historyTxs = ImmutableList.builder();
+                List<HistoryTx> historyTxs;
                 try {
-                    for (int i = 0; i < resTxs.length(); i++) {
-                        historyTxs.add(new HistoryTx(resTxs.getJSONObject(i)));
-                    }
+                    historyTxs = HistoryTx.historyFromReader(result.getResultReader());
                 } catch (JSONException e) {
                     onFailure(e);
                     return;
                 }
-                listener.onTransactionHistory(status, historyTxs.build());
+                listener.onTransactionHistory(status, historyTxs);
             }
 
             @Override
@@ -489,120 +656,300 @@ public class ServerClient implements BitBlockchainConnection {
                     log.debug("Canceling {} call", message.getMethod());
                 } else {
                     log.error("Could not get reply for blockchain.address.get_history", t);
+                    if (shouldRetry(t, attempt)) {
+                        getHistoryTx(status, listener, attempt + 1);
+                    }
                 }
             }
-        }, Threading.USER_THREAD);
+        }, syncExecutor);
     }
 
     @Override
     public void getTransaction(final Sha256Hash txHash,
                                final TransactionEventListener<BitTransaction> listener) {
+        getTransactions(ImmutableList.of(txHash), listener);
+    }
 
-        if (cacheDir != null) {
-            Threading.USER_THREAD.execute(new Runnable() {
+    @Override
+    public void getTransactions(final List<Sha256Hash> txHashes,
+                                final TransactionEventListener<BitTransaction> listener) {
+        if (txHashes.isEmpty()) return;
+
+        if (cacheDir != null && !txCacheFailed) {
+            syncExecutor.execute(new Runnable() {
                 @Override
                 public void run() {
-                    File txCachedFile = getTxCacheFile(txHash);
-                    if (txCachedFile.exists()) {
-                        try {
-                            byte[] txBytes = Files.toByteArray(txCachedFile);
-                            BitTransaction tx = new BitTransaction(type, txBytes);
-                            if (!tx.getHash().equals(txHash)) {
-                                if (!txCachedFile.delete()) {
-                                    log.warn("Error deleting cached transaction {}", txCachedFile);
-                                }
-                            } else {
-                                listener.onTransactionUpdate(tx);
-                                return;
-                            }
-                        } catch (IOException e) {
-                            log.warn("Error reading cached transaction", e);
+                    List<Sha256Hash> notCached = new ArrayList<>();
+                    for (Sha256Hash txHash : txHashes) {
+                        BitTransaction tx = getCachedTransaction(txHash);
+                        if (tx != null) {
+                            listener.onTransactionUpdate(tx);
+                        } else {
+                            notCached.add(txHash);
                         }
                     }
                     // Fallback to fetching from the network
-                    getTransactionFromNetwork(txHash, listener);
+                    getTransactionsFromNetwork(notCached, listener);
                 }
             });
         } else {
             // Caching disabled, fetch from network
-            getTransactionFromNetwork(txHash, listener);
+            getTransactionsFromNetwork(txHashes, listener);
         }
     }
 
-    private File getTxCacheFile(Sha256Hash txHash) {
-        return new File(new File(checkNotNull(cacheDir), type.getId()), txHash.toString());
+    @Nullable
+    private BitTransaction getCachedTransaction(Sha256Hash txHash) {
+        TransactionCache cache = getTxCache();
+        if (cache == null) return null;
+        byte[] txBytes = cache.get(txHash);
+        if (txBytes != null) {
+            try {
+                BitTransaction tx = new BitTransaction(type, txBytes);
+                if (tx.getHash().equals(txHash)) return tx;
+            } catch (Exception e) {
+                log.warn("Error reading cached transaction", e);
+            }
+            cache.remove(txHash);
+        }
+        return null;
     }
 
-    private void getTransactionFromNetwork(final Sha256Hash txHash, final TransactionEventListener<BitTransaction> listener) {
-        checkNotNull(stratumClient);
+    /**
+     * Get the transaction cache, opening it on first use. The cache index is loaded with a single
+     * read of the cache file, so this should not be called from the main thread.
+     */
+    @Nullable
+    private synchronized TransactionCache getTxCache() {
+        if (txCache == null && cacheDir != null && !txCacheFailed) {
+            File coinCacheDir = new File(cacheDir, type.getId());
+            deleteLegacyTxCache(coinCacheDir);
+            try {
+                txCache = new TransactionCache(new File(coinCacheDir, TX_CACHE_FILE), cacheSize);
+            } catch (IOException e) {
+                log.warn("Could not open transaction cache, disabling it", e);
+                txCacheFailed = true;
+            }
+        }
+        return txCache;
+    }
 
-        final CallMessage message = new CallMessage("blockchain.transaction.get", txHash.toString());
+    /**
+     * Get the block timestamps store of this coin, opening it on first use
+     */
+    @Nullable
+    private synchronized BlockTimestampStore getBlockTimestampStore() {
+        if (blockTimestampStore == null && cacheDir != null && !blockTimestampStoreFailed) {
+            File coinCacheDir = new File(cacheDir, type.getId());
+            try {
+                blockTimestampStore = new BlockTimestampStore(new File(coinCacheDir, BLOCK_TIMES_FILE));
+            } catch (IOException e) {
+                log.warn("Could not open block timestamps store, disabling it", e);
+                blockTimestampStoreFailed = true;
+            }
+        }
+        return blockTimestampStore;
+    }
 
-        final ListenableFuture<ResultMessage> result = stratumClient.call(message);
+    private void storeBlockTimestamp(BlockHeader header) {
+        BlockTimestampStore store = getBlockTimestampStore();
+        if (store != null) store.put(header.getBlockHeight(), header.getTimestamp());
+    }
 
-        Futures.addCallback(result, new FutureCallback<ResultMessage>() {
+    /**
+     * Previous versions stored each transaction in its own file named after the hash
+     */
+    private static void deleteLegacyTxCache(File coinCacheDir) {
+        File[] files = coinCacheDir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.getName().length() == 64 && !file.delete()) {
+                log.warn("Error deleting cached transaction {}", file);
+            }
+        }
+    }
 
+    private void getTransactionsFromNetwork(List<Sha256Hash> txHashes,
+                                            final TransactionEventListener<BitTransaction> listener) {
+        getTransactionsFromNetwork(txHashes, listener, 0);
+    }
+
+    private void getTransactionsFromNetwork(List<Sha256Hash> txHashes,
+                                            final TransactionEventListener<BitTransaction> listener,
+                                            int attempt) {
+        if (txHashes.isEmpty()) return;
+        checkNotNull(stratumClient);
+
+        // Attach to the requests already in flight and only fetch the rest
+        List<Sha256Hash> toFetch = new ArrayList<>(txHashes.size());
+        List<SettableFuture<BitTransaction>> toFetchFutures = new ArrayList<>(txHashes.size());
+        for (Sha256Hash txHash : txHashes) {
+            SettableFuture<BitTransaction> future = SettableFuture.create();
+            ListenableFuture<BitTransaction> inFlight = transactionsInFlight.putIfAbsent(txHash, future);
+            if (inFlight == null) {
+                toFetch.add(txHash);
+                toFetchFutures.add(future);
+                inFlight = future;
+            } else {
+                log.debug("Transaction {} already requested", txHash);
+            }
+            addTransactionCallback(txHash, inFlight, listener, attempt);
+        }
+        fetchTransactions(toFetch, toFetchFutures);
+    }
+
+    private void addTransactionCallback(final Sha256Hash txHash, ListenableFuture<BitTransaction> future,
+                                        final TransactionEventListener<BitTransaction> listener,
+                                        final int attempt) {
+        Futures.addCallback(future, new FutureCallback<BitTransaction>() {
             @Override
-            public void onSuccess(ResultMessage result) {
-                try {
-                    String rawTx = result.getResult().getString(0);
-                    byte[] txBytes = Utils.HEX.decode(rawTx);
-                    BitTransaction tx = new BitTransaction(type, txBytes);
-                    if (!tx.getHash().equals(txHash)) {
-                        throw new Exception("Requested TX " + txHash + " but got " + tx.getHashAsString());
-                    }
-                    listener.onTransactionUpdate(tx);
-                    if (cacheDir != null) {
-                        try {
-                            Files.write(txBytes, getTxCacheFile(txHash));
-                        } catch (IOException e) {
-                            log.warn("Error writing cached transaction", e);
-                        }
-                    }
-                } catch (Exception e) {
-                    onFailure(e);
-                }
+            public void onSuccess(BitTransaction tx) {
+                listener.onTransactionUpdate(tx);
             }
 
             @Override
             public void onFailure(Throwable t) {
                 if (t instanceof CancellationException) {
-                    log.debug("Canceling {} call", message.getMethod());
+                    log.debug("Canceling blockchain.transaction.get call");
                 } else {
                     log.error("Could not get reply for blockchain.transaction.get", t);
+                    // The server did not reply in time, ask again so the wallet does not stall
+                    if (shouldRetry(t, attempt)) {
+                        getTransactionsFromNetwork(ImmutableList.of(txHash), listener, attempt + 1);
+                    }
                 }
             }
-        }, Threading.USER_THREAD);
+        }, syncExecutor);
+    }
+
+    private void fetchTransactions(List<Sha256Hash> txHashes,
+                                   List<SettableFuture<BitTransaction>> futures) {
+        if (txHashes.isEmpty()) return;
+
+        List<CallMessage> messages = new ArrayList<>(txHashes.size());
+        for (Sha256Hash txHash : txHashes) {
+            messages.add(new CallMessage("blockchain.transaction.get", txHash.toString()));
+        }
+
+        List<ListenableFuture<ResultMessage>> results = call(messages);
+
+        for (int i = 0; i < txHashes.size(); i++) {
+            final Sha256Hash txHash = txHashes.get(i);
+            final SettableFuture<BitTransaction> future = futures.get(i);
+
+            Futures.addCallback(results.get(i), new FutureCallback<ResultMessage>() {
+
+                @Override
+                public void onSuccess(ResultMessage result) {
+                    try {
+                        byte[] txBytes = result.getRawResult();
+                        BitTransaction tx = new BitTransaction(type, txBytes);
+                        if (!tx.getHash().equals(txHash)) {
+                            throw new Exception("Requested TX " + txHash + " but got " + tx.getHashAsString());
+                        }
+                        TransactionCache cache = getTxCache();
+                        if (cache != null) cache.put(txHash, txBytes);
+                        transactionsInFlight.remove(txHash, future);
+                        future.set(tx);
+                    } catch (Exception e) {
+                        onFailure(e);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    transactionsInFlight.remove(txHash, future);
+                    if (t instanceof CancellationException) {
+                        future.cancel(false);
+                    } else {
+                        future.setException(t);
+                    }
+                }
+            }, syncExecutor);
+        }
     }
 
     @Override
     public void getBlock(final int height, final TransactionEventListener<BitTransaction> listener) {
         checkNotNull(stratumClient);
+        // The callers usually hold the wallet lock, so the timestamps store is read later by the
+        // sync executor and not on this thread
+        syncExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getBlockFromStoreOrNetwork(height, listener);
+            }
+        });
+    }
+
+    private void getBlockFromStoreOrNetwork(final int height,
+                                            final TransactionEventListener<BitTransaction> listener) {
+        // The timestamps are stored when first fetched, so the header may be already known
+        BlockTimestampStore store = getBlockTimestampStore();
+        final Long timestamp = store != null ? store.get(height) : null;
+        if (timestamp != null) {
+            listener.onBlockUpdate(new BlockHeader(type, timestamp, height));
+            return;
+        }
+
+        // Disconnected while this task was waiting, the wallet requests the block again on reconnect
+        if (stratumClient == null) return;
+
+        final SettableFuture<BlockHeader> future = SettableFuture.create();
+        ListenableFuture<BlockHeader> inFlight = blocksInFlight.putIfAbsent(height, future);
+        if (inFlight == null) {
+            fetchBlock(height, future);
+            inFlight = future;
+        } else {
+            log.debug("Block {} already requested", height);
+        }
+
+        Futures.addCallback(inFlight, new FutureCallback<BlockHeader>() {
+            @Override
+            public void onSuccess(BlockHeader header) {
+                listener.onBlockUpdate(header);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof CancellationException) {
+                    log.debug("Canceling blockchain.block.get_header call");
+                } else {
+                    log.error("Could not get reply for blockchain.block.get_header", t);
+                }
+            }
+        }, syncExecutor);
+    }
 
+    private void fetchBlock(final int height, final SettableFuture<BlockHeader> future) {
         final CallMessage message = new CallMessage("blockchain.block.get_header", height);
 
-        final ListenableFuture<ResultMessage> result = stratumClient.call(message);
+        final ListenableFuture<ResultMessage> result = call(message);
 
         Futures.addCallback(result, new FutureCallback<ResultMessage>() {
             @Override
             public void onSuccess(ResultMessage result) {
                 try {
                     BlockHeader header = parseBlockHeader(type, result.getResult().getJSONObject(0));
-                    listener.onBlockUpdate(header);
+                    storeBlockTimestamp(header);
+                    blocksInFlight.remove(height, future);
+                    future.set(header);
                 } catch (JSONException e) {
                     log.error("Unexpected JSON format", e);
+                    onFailure(e);
                 }
             }
 
             @Override
             public void onFailure(Throwable t) {
+                blocksInFlight.remove(height, future);
                 if (t instanceof CancellationException) {
-                    log.debug("Canceling {} call", message.getMethod());
+                    future.cancel(false);
                 } else {
-                    log.error("Could not get reply for blockchain.block.get_header", t);
+                    future.setException(t);
                 }
             }
-        }, Threading.USER_THREAD);
+        }, syncExecutor);
     }
 
     @Override
@@ -612,7 +959,7 @@ public class ServerClient implements BitBlockchainConnection {
 
         CallMessage message = new CallMessage("blockchain.transaction.broadcast",
                 Arrays.asList(Utils.HEX.encode(tx.bitcoinSerialize())));
-        final ListenableFuture<ResultMessage> result = stratumClient.call(message);
+        final ListenableFuture<ResultMessage> result = call(message);
 
         Futures.addCallback(result, new FutureCallback<ResultMessage>() {
 
@@ -636,7 +983,7 @@ public class ServerClient implements BitBlockchainConnection {
                 log.error("Could not get reply for blockchain.transaction.broadcast", t);
                 if (listener != null) listener.onTransactionBroadcastError(tx);
             }
-        }, Threading.USER_THREAD);
+        }, syncExecutor);
     }
 
     @Override
@@ -647,7 +994,7 @@ public class ServerClient implements BitBlockchainConnection {
                 Arrays.asList(Utils.HEX.encode(tx.bitcoinSerialize())));
 
         try {
-            ResultMessage result = stratumClient.call(message).get();
+            ResultMessage result = call(message).get();
             String txId = result.getResult().getString(0);
 
             // FIXME could return {u'message': u'', u'code': -25}
@@ -673,10 +1020,14 @@ public class ServerClient implements BitBlockchainConnection {
 
         final CallMessage pingMsg = new CallMessage("server.version",
                 ImmutableList.of(versionString, CLIENT_PROTOCOL));
-        ListenableFuture<ResultMessage> pong = stratumClient.call(pingMsg);
+        final ServerAddress serverAddress = lastServerAddress;
+        final long pingStartedAt = System.nanoTime();
+        ListenableFuture<ResultMessage> pong = call(pingMsg);
         Futures.addCallback(pong, new FutureCallback<ResultMessage>() {
             @Override
             public void onSuccess(@Nullable ResultMessage result) {
+                serverSelector.recordLatency(serverAddress,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pingStartedAt));
                 if (log.isDebugEnabled()) {
                     try {
                         log.debug("Server {} version {} OK", type.getName(),
@@ -691,12 +1042,104 @@ public class ServerClient implements BitBlockchainConnection {
                     log.debug("Canceling {} call", pingMsg.getMethod());
                 } else {
                     log.error("Server {} ping failed", type.getName());
+                    serverSelector.recordFailure(serverAddress);
                 }
             }
-        }, Threading.USER_THREAD);
+        }, syncExecutor);
+    }
+
+    private ListenableFuture<ResultMessage> call(CallMessage message) {
+        return recordLatency(message, stratumClient.call(message));
+    }
+
+    private List<ListenableFuture<ResultMessage>> call(List<CallMessage> messages) {
+        return recordLatencies(messages, stratumClient.call(messages));
+    }
+
+    private ListenableFuture<ResultMessage> subscribe(CallMessage message,
+                                                      StratumClient.SubscribeResultHandler handler) {
+        return recordLatency(message, stratumClient.subscribe(message, handler));
+    }
+
+    private List<ListenableFuture<ResultMessage>> subscribe(List<CallMessage> messages,
+                                                            StratumClient.SubscribeResultHandler handler) {
+        return recordLatencies(messages, stratumClient.subscribe(messages, handler));
+    }
+
+    private List<ListenableFuture<ResultMessage>> recordLatencies(List<CallMessage> messages,
+                                                                  List<ListenableFuture<ResultMessage>> replies) {
+        for (int i = 0; i < messages.size(); i++) {
+            recordLatency(messages.get(i), replies.get(i));
+        }
+        return replies;
+    }
+
+    /**
+     * Checks if a failed call should be sent again. Only timeouts are retried and at most
+     * {@link #MAX_CALL_RETRIES} times. When the server keeps timing out the connection is reset,
+     * so the server is reported as failed and the client connects to another one where the
+     * wallet requests everything again.
+     */
+    private boolean shouldRetry(Throwable t, int attempt) {
+        if (!(t instanceof TimeoutException) || !isActivelyConnected()) return false;
+
+        if (consecutiveTimeouts.incrementAndGet() >= MAX_CONSECUTIVE_TIMEOUTS) {
+            log.warn("{} server {} timed out {} times, reconnecting",
+                    type.getName(), lastServerAddress, consecutiveTimeouts.get());
+            consecutiveTimeouts.set(0);
+            resetConnection();
+            return false;
+        }
+        return attempt < MAX_CALL_RETRIES;
+    }
+
+    /**
+     * Records the time until the successful reply of the call in the histogram of its method
+     */
+    private ListenableFuture<ResultMessage> recordLatency(CallMessage message,
+                                                          ListenableFuture<ResultMessage> reply) {
+        final LatencyHistogram histogram = getLatencyHistogram(message.getMethod());
+        final long startedAt = System.nanoTime();
+        Futures.addCallback(reply, new FutureCallback<ResultMessage>() {
+            @Override
+            public void onSuccess(ResultMessage result) {
+                histogram.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+                consecutiveTimeouts.set(0);
+            }
+
+            @Override
+            public void onFailure(Throwable t) { /* only the replies are recorded */ }
+        });
+        return reply;
     }
 
-    public void setCacheDir(File cacheDir, int cacheSize) {
+    private LatencyHistogram getLatencyHistogram(String method) {
+        LatencyHistogram histogram = latencies.get(method);
+        if (histogram == null) {
+            latencies.putIfAbsent(method, new LatencyHistogram());
+            histogram = latencies.get(method);
+        }
+        return histogram;
+    }
+
+    @Override
+    public ConnectionStats getConnectionStats() {
+        StratumClient client = stratumClient;
+        long received = bytesReceived.get() + (client != null ? client.getBytesReceived() : 0);
+        return new ConnectionStats(received, latencies);
+    }
+
+    public synchronized void setCacheDir(File cacheDir, int cacheSize) {
+        if (txCache != null) {
+            txCache.close();
+            txCache = null;
+        }
+        txCacheFailed = false;
+        if (blockTimestampStore != null) {
+            blockTimestampStore.close();
+            blockTimestampStore = null;
+        }
+        blockTimestampStoreFailed = false;
         this.cacheDir = cacheDir;
         this.cacheSize = cacheSize;
     }
@@ -716,6 +1159,47 @@ public class ServerClient implements BitBlockchainConnection {
             this.height = height;
         }
 
+        protected HistoryTx(Sha256Hash txHash, int height) {
+            this.txHash = txHash;
+            this.height = height;
+        }
+
+        protected static Sha256Hash readTxHash(JsonReader reader) throws JSONException {
+            byte[] hash = reader.nextHex();
+            if (hash.length != 32) throw new JSONException("Invalid transaction hash");
+            return new Sha256Hash(hash);
+        }
+
+        /**
+         * Reads a blockchain.address.get_history reply directly, without building its JSON objects
+         */
+        public static List<HistoryTx> historyFromReader(JsonReader reader) throws JSONException {
+            ImmutableList.Builder<HistoryTx> list = ImmutableList.builder();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Sha256Hash txHash = null;
+                Integer height = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "tx_hash":
+                            txHash = readTxHash(reader);
+                            break;
+                        case "height":
+                            height = reader.nextInt();
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (txHash == null || height == null) throw new JSONException("Missing history field");
+                list.add(new HistoryTx(txHash, height));
+            }
+            reader.endArray();
+            return list.build();
+        }
+
         public static List<HistoryTx> historyFromArray(JSONArray jsonArray) throws JSONException {
             ImmutableList.Builder<HistoryTx> list = ImmutableList.builder();
             for (int i = 0; i < jsonArray.length(); i++) {
@@ -749,6 +1233,52 @@ public class ServerClient implements BitBlockchainConnection {
             this.value = value;
         }
 
+        protected UnspentTx(Sha256Hash txHash, int txPos, long value, int height) {
+            super(txHash, height);
+            this.txPos = txPos;
+            this.value = value;
+        }
+
+        /**
+         * Reads a blockchain.address.listunspent reply directly, without building its JSON objects
+         */
+        public static List<UnspentTx> unspentFromReader(JsonReader reader) throws JSONException {
+            ImmutableList.Builder<UnspentTx> list = ImmutableList.builder();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Sha256Hash txHash = null;
+                Integer height = null;
+                Integer txPos = null;
+                Long value = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "tx_hash":
+                            txHash = readTxHash(reader);
+                            break;
+                        case "height":
+                            height = reader.nextInt();
+                            break;
+                        case "tx_pos":
+                            txPos = reader.nextInt();
+                            break;
+                        case "value":
+                            value = reader.nextLong();
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (txHash == null || height == null || txPos == null || value == null) {
+                    throw new JSONException("Missing unspent output field");
+                }
+                list.add(new UnspentTx(txHash, txPos, value, height));
+            }
+            reader.endArray();
+            return list.build();
+        }
+
         public static List<HistoryTx> unspentFromArray(JSONArray jsonArray) throws JSONException {
             ImmutableList.Builder<HistoryTx> list = ImmutableList.builder();
             for (int i = 0; i < jsonArray.length(); i++) {
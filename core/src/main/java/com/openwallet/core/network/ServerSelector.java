@@ -0,0 +1,133 @@
+package com.openwallet.core.network;
+
+import com.openwallet.stratumj.ServerAddress;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.openwallet.core.Preconditions.checkArgument;
+
+/**
+ * Keeps track of the round-trip latency and the error rate of each server of a coin and picks
+ * the fastest healthy one to connect to.
+ *
+ * Both metrics are exponential moving averages so old samples fade away and a server that
+ * recovers is eventually preferred again. Servers without any sample are assumed to be
+ * reasonably fast so that they are tried at least once.
+ *
+ * @author John L. Jegutanis
+ */
+public class ServerSelector {
+    // Weight of a new sample in the moving averages
+    private static final double SAMPLE_WEIGHT = 0.3;
+    // Assumed latency of the servers that were not measured yet
+    @VisibleForTesting static final long DEFAULT_LATENCY_MS = 500;
+    // Latency that is added to the score of a server that always fails
+    @VisibleForTesting static final long FAILURE_PENALTY_MS = 5000;
+    // Now and then pick a random server instead of the best, to keep the stats fresh
+    private static final double EXPLORE_PROBABILITY = 0.1;
+
+    private final ImmutableList<ServerAddress> addresses;
+    private final HashMap<ServerAddress, ServerStats> stats = new HashMap<>();
+    private final Random random;
+
+    private static class ServerStats {
+        double latency = -1;
+        double errorRate = 0;
+    }
+
+    public ServerSelector(List<ServerAddress> addresses) {
+        this(addresses, new Random());
+    }
+
+    @VisibleForTesting
+    ServerSelector(List<ServerAddress> addresses, Random random) {
+        checkArgument(!addresses.isEmpty(), "No server addresses");
+        this.addresses = ImmutableList.copyOf(addresses);
+        this.random = random;
+    }
+
+    /**
+     * Records a successful round trip with the server
+     */
+    public synchronized void recordLatency(ServerAddress address, long latencyMillis) {
+        ServerStats serverStats = getStats(address);
+        if (serverStats.latency < 0) {
+            serverStats.latency = latencyMillis;
+        } else {
+            serverStats.latency += SAMPLE_WEIGHT * (latencyMillis - serverStats.latency);
+        }
+        serverStats.errorRate -= SAMPLE_WEIGHT * serverStats.errorRate;
+    }
+
+    /**
+     * Records a failed connection or a call that got no reply
+     */
+    public synchronized void recordFailure(ServerAddress address) {
+        ServerStats serverStats = getStats(address);
+        serverStats.errorRate += SAMPLE_WEIGHT * (1 - serverStats.errorRate);
+    }
+
+    /**
+     * Get the average latency of the server, or -1 if it was never measured
+     */
+    public synchronized long getLatency(ServerAddress address) {
+        ServerStats serverStats = stats.get(address);
+        return serverStats != null ? Math.round(serverStats.latency) : -1;
+    }
+
+    /**
+     * Get the score of the server, lower is better
+     */
+    @VisibleForTesting
+    synchronized double getScore(ServerAddress address) {
+        ServerStats serverStats = stats.get(address);
+        if (serverStats == null) return DEFAULT_LATENCY_MS;
+        double latency = serverStats.latency < 0 ? DEFAULT_LATENCY_MS : serverStats.latency;
+        return latency + serverStats.errorRate * FAILURE_PENALTY_MS;
+    }
+
+    /**
+     * Selects the best server that is not excluded. If all servers are excluded, selects among
+     * all of them.
+     */
+    public synchronized ServerAddress select(Set<ServerAddress> excluded) {
+        List<ServerAddress> candidates = new ArrayList<>(addresses.size());
+        for (ServerAddress address : addresses) {
+            if (!excluded.contains(address)) candidates.add(address);
+        }
+        if (candidates.isEmpty()) candidates.addAll(addresses);
+
+        if (random.nextDouble() < EXPLORE_PROBABILITY) {
+            return candidates.get(random.nextInt(candidates.size()));
+        }
+
+        // Start from a random position so that ties are broken randomly
+        int offset = random.nextInt(candidates.size());
+        ServerAddress best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            ServerAddress address = candidates.get((offset + i) % candidates.size());
+            double score = getScore(address);
+            if (score < bestScore) {
+                best = address;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private ServerStats getStats(ServerAddress address) {
+        ServerStats serverStats = stats.get(address);
+        if (serverStats == null) {
+            serverStats = new ServerStats();
+            stats.put(address, serverStats);
+        }
+        return serverStats;
+    }
+}
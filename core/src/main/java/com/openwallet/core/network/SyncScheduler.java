@@ -0,0 +1,56 @@
+package com.openwallet.core.network;
+
+import com.openwallet.core.coins.CoinType;
+import com.openwallet.stratumj.SerialExecutor;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.bitcoinj.utils.Threading;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the network callbacks of the accounts so that different coins sync in parallel.
+ *
+ * Each coin type gets its own serial executor, so the callbacks of a coin still run one at a
+ * time and in order, while the callbacks of different coins run at the same time in a small
+ * shared pool of threads.
+ *
+ * @author John L. Jegutanis
+ */
+public class SyncScheduler {
+    private static final int MAX_THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final long KEEP_ALIVE_SEC = 30;
+
+    private static final ThreadPoolExecutor pool;
+    private static final ConcurrentHashMap<CoinType, Executor> executors = new ConcurrentHashMap<>();
+
+    static {
+        ThreadFactoryBuilder builder = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Sync thread %d");
+        Thread.UncaughtExceptionHandler handler = Threading.uncaughtExceptionHandler;
+        if (handler != null) builder.setUncaughtExceptionHandler(handler);
+        pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), builder.build());
+        // Do not keep idle threads around when nothing is syncing
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the executor of the coin type, the tasks that it runs never overlap and run in the
+     * order they were submitted
+     */
+    public static Executor getExecutor(CoinType type) {
+        Executor executor = executors.get(type);
+        if (executor == null) {
+            executors.putIfAbsent(type, new SerialExecutor(pool));
+            executor = executors.get(type);
+        }
+        return executor;
+    }
+}
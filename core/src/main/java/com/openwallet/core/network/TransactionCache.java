@@ -0,0 +1,266 @@
+package com.openwallet.core.network;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import static com.openwallet.core.Preconditions.checkArgument;
+
+/**
+ * A size capped cache of raw transactions, stored in a single append-only segment file.
+ *
+ * Each record is the 32 bytes transaction hash, the length of the transaction as a 4 bytes
+ * integer and the raw transaction. The index of the records is kept in memory and is built with
+ * one sequential read of the file when the cache is opened.
+ *
+ * When the transactions exceed the maximum size, the least recently used are evicted. Evicted
+ * records stay in the file until it grows too much, then the file is compacted by rewriting only
+ * the live records.
+ *
+ * @author John L. Jegutanis
+ */
+public class TransactionCache {
+    private static final Logger log = LoggerFactory.getLogger(TransactionCache.class);
+
+    private static final int HEADER_SIZE = 32 + 4;
+    // Compact the file when it is this many times bigger than the maximum size
+    private static final int COMPACT_FACTOR = 2;
+
+    private final File file;
+    private final long maxSize;
+    private final LinkedHashMap<Sha256Hash, Record> index = new LinkedHashMap<>(16, 0.75f, true);
+    private RandomAccessFile segment;
+    private long segmentLength;
+    private long liveSize;
+
+    private static class Record {
+        final long offset;
+        final int length;
+
+        Record(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Opens the cache file, creating it if needed, and loads the index of the transactions.
+     */
+    public TransactionCache(File file, long maxSize) throws IOException {
+        checkArgument(maxSize > 0, "Maximum size must be positive");
+        this.file = file;
+        this.maxSize = maxSize;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        loadIndex();
+        segment = new RandomAccessFile(file, "rw");
+        if (segment.length() != segmentLength) {
+            log.warn("Truncating damaged transaction cache {} at {}", file, segmentLength);
+            segment.setLength(segmentLength);
+        }
+        evictIfNeeded();
+    }
+
+    private void loadIndex() throws IOException {
+        segmentLength = 0;
+        if (!file.exists()) return;
+
+        long fileLength = file.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            byte[] hash = new byte[32];
+            while (true) {
+                in.readFully(hash);
+                int length = in.readInt();
+                long offset = segmentLength + HEADER_SIZE;
+                if (length < 0 || offset + length > fileLength) break;
+                skipFully(in, length);
+                putRecord(new Sha256Hash(hash.clone()), new Record(offset, length));
+                segmentLength = offset + length;
+            }
+        } catch (EOFException ignore) {
+            // End of file or a partially written record, that will be truncated
+        } finally {
+            in.close();
+        }
+        log.info("Loaded {} cached transactions from {}", index.size(), file);
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) throw new EOFException();
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Get the raw transaction or null if it is not in the cache
+     */
+    @Nullable
+    public synchronized byte[] get(Sha256Hash txHash) {
+        Record record = index.get(txHash);
+        if (record == null || segment == null) return null;
+        try {
+            byte[] txBytes = new byte[record.length];
+            segment.seek(record.offset);
+            segment.readFully(txBytes);
+            return txBytes;
+        } catch (IOException e) {
+            log.warn("Error reading cached transaction", e);
+            removeRecord(txHash);
+            return null;
+        }
+    }
+
+    public synchronized void put(Sha256Hash txHash, byte[] txBytes) {
+        if (segment == null || index.containsKey(txHash)) return;
+        // Too big to cache
+        if (txBytes.length > maxSize) return;
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + txBytes.length);
+        buffer.put(txHash.getBytes());
+        buffer.putInt(txBytes.length);
+        buffer.put(txBytes);
+        try {
+            segment.seek(segmentLength);
+            segment.write(buffer.array());
+        } catch (IOException e) {
+            log.warn("Error writing cached transaction", e);
+            return;
+        }
+        putRecord(txHash, new Record(segmentLength + HEADER_SIZE, txBytes.length));
+        segmentLength += buffer.capacity();
+        evictIfNeeded();
+    }
+
+    public synchronized void remove(Sha256Hash txHash) {
+        removeRecord(txHash);
+    }
+
+    public synchronized boolean contains(Sha256Hash txHash) {
+        return index.containsKey(txHash);
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Get the size of all the cached transactions
+     */
+    public synchronized long getSizeInBytes() {
+        return liveSize;
+    }
+
+    @VisibleForTesting
+    synchronized long getFileLength() {
+        return segmentLength;
+    }
+
+    public synchronized void close() {
+        if (segment == null) return;
+        try {
+            segment.close();
+        } catch (IOException e) {
+            log.warn("Error closing transaction cache", e);
+        }
+        segment = null;
+    }
+
+    private void putRecord(Sha256Hash txHash, Record record) {
+        Record previous = index.put(txHash, record);
+        if (previous != null) liveSize -= previous.length;
+        liveSize += record.length;
+    }
+
+    private void removeRecord(Sha256Hash txHash) {
+        Record record = index.remove(txHash);
+        if (record != null) liveSize -= record.length;
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<Sha256Hash, Record>> iterator = index.entrySet().iterator();
+        while (liveSize > maxSize && iterator.hasNext()) {
+            liveSize -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+        if (segmentLength > maxSize * COMPACT_FACTOR) {
+            try {
+                compact();
+            } catch (IOException e) {
+                log.warn("Error compacting transaction cache", e);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the live records to a new file, in least recently used order so that the order
+     * is preserved for the next time the cache is opened.
+     */
+    private void compact() throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        RandomAccessFile compacted = new RandomAccessFile(tmpFile, "rw");
+        ArrayList<Map.Entry<Sha256Hash, Record>> records = new ArrayList<>(index.entrySet());
+        LinkedHashMap<Sha256Hash, Record> newIndex = new LinkedHashMap<>(16, 0.75f, true);
+        long newLength = 0;
+        long newLiveSize = 0;
+        try {
+            compacted.setLength(0);
+            for (Map.Entry<Sha256Hash, Record> entry : records) {
+                Record record = entry.getValue();
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + record.length);
+                buffer.put(entry.getKey().getBytes());
+                buffer.putInt(record.length);
+                segment.seek(record.offset);
+                segment.readFully(buffer.array(), HEADER_SIZE, record.length);
+                compacted.write(buffer.array());
+                newIndex.put(entry.getKey(), new Record(newLength + HEADER_SIZE, record.length));
+                newLength += buffer.capacity();
+                newLiveSize += record.length;
+            }
+        } finally {
+            compacted.close();
+        }
+
+        segment.close();
+        segment = null;
+        if (!tmpFile.renameTo(file)) {
+            // Could not replace the file, start with an empty cache
+            log.warn("Could not replace transaction cache {}", file);
+            if (!file.delete() || !tmpFile.renameTo(file)) {
+                newIndex.clear();
+                newLength = 0;
+                newLiveSize = 0;
+                if (!tmpFile.delete()) log.warn("Could not delete {}", tmpFile);
+            }
+        }
+        segment = new RandomAccessFile(file, "rw");
+        segment.setLength(newLength);
+        index.clear();
+        index.putAll(newIndex);
+        segmentLength = newLength;
+        liveSize = newLiveSize;
+        log.info("Compacted transaction cache {} to {} bytes", file, newLength);
+    }
+}
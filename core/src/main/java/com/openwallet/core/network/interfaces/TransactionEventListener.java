@@ -16,6 +16,12 @@ public interface TransactionEventListener<T> {
 
     void onAddressStatusUpdate(AddressStatus status);
 
+    /**
+     * Called with the statuses of several addresses at once, for example after subscribing to
+     * many addresses at the same time
+     */
+    void onAddressStatusesUpdate(List<AddressStatus> statuses);
+
     void onTransactionHistory(AddressStatus status, List<HistoryTx> historyTxes);
 
     void onTransactionUpdate(T transaction);
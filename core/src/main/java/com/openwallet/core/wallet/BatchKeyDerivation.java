@@ -0,0 +1,263 @@
+package com.openwallet.core.wallet;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.bitcoinj.crypto.ChildNumber;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.crypto.HDDerivationException;
+import org.bitcoinj.crypto.HDKeyDerivation;
+import org.bitcoinj.utils.Threading;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.openwallet.core.Preconditions.checkArgument;
+
+/**
+ * Derives ranges of child keys of parent keys in parallel.
+ *
+ * Each child needs an EC point multiplication, so deriving the lookahead keys of many accounts
+ * one by one is slow. The ranges are split in chunks that are derived at the same time in a shared
+ * pool of threads, the calling thread derives the first chunk. A batch can hold the ranges of many
+ * key chains, so that even short lookahead ranges keep all the threads busy. The result is the
+ * same as deriving the keys one after the other with
+ * {@link HDKeyDerivation#deriveThisOrNextChildKey}.
+ *
+ * @author John L. Jegutanis
+ */
+public class BatchKeyDerivation {
+    // Fewer keys than this are derived in the calling thread
+    @VisibleForTesting static final int MIN_KEYS_PER_THREAD = 8;
+
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final int MAX_THREADS = Math.max(2, DEFAULT_PARALLELISM);
+    private static volatile int parallelism = DEFAULT_PARALLELISM;
+
+    private static final ThreadPoolExecutor pool;
+
+    static {
+        ThreadFactoryBuilder builder = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Key derivation thread %d");
+        Thread.UncaughtExceptionHandler handler = Threading.uncaughtExceptionHandler;
+        if (handler != null) builder.setUncaughtExceptionHandler(handler);
+        pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), builder.build());
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Receives the derived ranges once the batch is derived. It is called once with all the
+     * ranges that were added with it, in the order they were added.
+     */
+    interface Listener {
+        void onKeysDerived(List<Range> ranges);
+    }
+
+    private final List<Range> ranges = new ArrayList<>();
+    private final LinkedHashMap<Listener, List<Range>> rangesByListener = new LinkedHashMap<>();
+    private int totalKeys = 0;
+
+    /**
+     * Set the number of threads that derive the keys of a batch, 1 derives them in the calling
+     * thread. It is limited to the number of processors, or two on a single processor.
+     */
+    public static void setParallelism(int threads) {
+        checkArgument(threads > 0, "Invalid number of threads");
+        parallelism = Math.min(threads, MAX_THREADS);
+    }
+
+    /**
+     * Adds a range of children of the parent to this batch. After {@link #derive()} the listener
+     * gets the public only keys, like the ones returned by {@link #deriveChildren}.
+     */
+    void add(DeterministicKey parent, int firstChild, int count, Listener listener) {
+        checkArgument(count >= 0, "Invalid number of keys");
+        Range range = new Range(parent, firstChild, count);
+        ranges.add(range);
+        List<Range> listenerRanges = rangesByListener.get(listener);
+        if (listenerRanges == null) {
+            listenerRanges = new ArrayList<>();
+            rangesByListener.put(listener, listenerRanges);
+        }
+        listenerRanges.add(range);
+        totalKeys += count;
+    }
+
+    /**
+     * Derives all the ranges of this batch together and calls each listener once, in the order
+     * they were added and in the calling thread. The batch is empty afterwards.
+     */
+    void derive() {
+        deriveRanges(ranges, totalKeys);
+        for (Map.Entry<Listener, List<Range>> entry : rangesByListener.entrySet()) {
+            entry.getKey().onKeysDerived(entry.getValue());
+        }
+        ranges.clear();
+        rangesByListener.clear();
+        totalKeys = 0;
+    }
+
+    /**
+     * Derives the public only keys of the children of the parent, starting from the first child.
+     * Children that are not valid keys are skipped, like in
+     * {@link HDKeyDerivation#deriveThisOrNextChildKey}, so exactly count keys are returned.
+     */
+    public static List<DeterministicKey> deriveChildren(DeterministicKey parent, int firstChild,
+                                                        int count) {
+        checkArgument(count >= 0, "Invalid number of keys");
+        Range range = new Range(parent, firstChild, count);
+        deriveRanges(Collections.singletonList(range), count);
+        return range.getKeys();
+    }
+
+    private static void deriveRanges(List<Range> ranges, int totalKeys) {
+        int threads = Math.min(parallelism, totalKeys / MIN_KEYS_PER_THREAD);
+        if (threads <= 1) {
+            for (Range range : ranges) {
+                range.derive(0, range.keys.length);
+            }
+            return;
+        }
+
+        // Split the ranges in chunks of the same size, a chunk can hold the end of a range and
+        // the start of the next ones
+        int chunkSize = (totalKeys + threads - 1) / threads;
+        List<List<Segment>> chunks = new ArrayList<>(threads);
+        List<Segment> chunk = new ArrayList<>();
+        int chunkKeys = 0;
+        for (Range range : ranges) {
+            // Decode the parent public key once, before the threads read it
+            range.parent.getPubKeyPoint();
+            int start = 0;
+            while (start < range.keys.length) {
+                int end = Math.min(range.keys.length, start + chunkSize - chunkKeys);
+                chunk.add(new Segment(range, start, end));
+                chunkKeys += end - start;
+                start = end;
+                if (chunkKeys == chunkSize) {
+                    chunks.add(chunk);
+                    chunk = new ArrayList<>();
+                    chunkKeys = 0;
+                }
+            }
+        }
+        if (!chunk.isEmpty()) chunks.add(chunk);
+
+        List<Future<?>> tasks = new ArrayList<>(chunks.size() - 1);
+        for (int i = 1; i < chunks.size(); i++) {
+            tasks.add(pool.submit(newChunkTask(chunks.get(i))));
+        }
+        deriveChunk(chunks.get(0));
+        for (Future<?> task : tasks) {
+            waitFor(task);
+        }
+    }
+
+    private static Callable<Void> newChunkTask(final List<Segment> chunk) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                deriveChunk(chunk);
+                return null;
+            }
+        };
+    }
+
+    private static void deriveChunk(List<Segment> chunk) {
+        for (Segment segment : chunk) {
+            segment.range.derive(segment.start, segment.end);
+        }
+    }
+
+    /**
+     * The children of a parent key to derive, each thread fills a different part of the keys
+     */
+    static final class Range {
+        final DeterministicKey parent;
+        final int firstChild;
+        final DeterministicKey[] keys;
+
+        Range(DeterministicKey parent, int firstChild, int count) {
+            this.parent = parent;
+            this.firstChild = firstChild;
+            this.keys = new DeterministicKey[count];
+        }
+
+        /**
+         * Derives the keys from start to end, the invalid children are left as null
+         */
+        void derive(int start, int end) {
+            for (int i = start; i < end; i++) {
+                try {
+                    ChildNumber childNumber = new ChildNumber(firstChild + i, false);
+                    keys[i] = HDKeyDerivation.deriveChildKey(parent, childNumber).getPubOnly();
+                } catch (HDDerivationException e) {
+                    keys[i] = null;
+                }
+            }
+        }
+
+        /**
+         * Returns the derived keys, skipping the invalid children and deriving more at the end to
+         * replace them
+         */
+        List<DeterministicKey> getKeys() {
+            List<DeterministicKey> result = new ArrayList<>(keys.length);
+            for (DeterministicKey key : keys) {
+                if (key != null) result.add(key);
+            }
+            int nextChild = firstChild + keys.length;
+            while (result.size() < keys.length) {
+                DeterministicKey key = HDKeyDerivation.deriveThisOrNextChildKey(parent, nextChild);
+                result.add(key.getPubOnly());
+                nextChild = key.getChildNumber().num() + 1;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A part of a range that a thread derives
+     */
+    private static final class Segment {
+        final Range range;
+        final int start;
+        final int end;
+
+        Segment(Range range, int start, int end) {
+            this.range = range;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static void waitFor(Future<?> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    task.get();
+                    return;
+                } catch (InterruptedException e) {
+                    // The keys are needed to continue, wait for them and restore the interrupt
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
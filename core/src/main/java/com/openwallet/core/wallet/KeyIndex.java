@@ -0,0 +1,137 @@
+package com.openwallet.core.wallet;
+
+import org.bitcoinj.core.ECKey;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * A hash table of keys by a byte array, like the hash160 or the public key.
+ *
+ * The byte arrays are used directly as the keys of an open addressing table, so finding a key
+ * does not allocate a wrapper object like a ByteString. The bytes are already random, so the hash
+ * is made from the first few of them.
+ *
+ * Not thread safe, the key chain accesses it with its lock held.
+ *
+ * @author John L. Jegutanis
+ */
+public class KeyIndex {
+    private static final int MIN_CAPACITY = 16;
+    // Bytes used for the hash, the first byte of a public key is its type so it is skipped
+    private static final int HASH_OFFSET = 1;
+    private static final int HASH_BYTES = 8;
+
+    private byte[][] keys;
+    private ECKey[] values;
+    private int size = 0;
+
+    public KeyIndex() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new byte[capacity][];
+        values = new ECKey[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Nullable
+    public ECKey get(byte[] key) {
+        int slot = findSlot(key);
+        return slot >= 0 ? values[slot] : null;
+    }
+
+    public boolean containsKey(byte[] key) {
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * Adds the value or replaces the one with the same key, returns the replaced value
+     */
+    @Nullable
+    public ECKey put(byte[] key, ECKey value) {
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            ECKey previous = values[slot];
+            values[slot] = value;
+            return previous;
+        }
+        // Keep the table at most half full
+        if ((size + 1) * 2 > keys.length) grow();
+        insert(key, value);
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the value and returns it or null if it was not present
+     */
+    @Nullable
+    public ECKey remove(byte[] key) {
+        int hole = findSlot(key);
+        if (hole < 0) return null;
+        ECKey removed = values[hole];
+        int mask = keys.length - 1;
+        // Shift back the following entries that would not be found with the hole in their way
+        for (int slot = (hole + 1) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            int home = hash(keys[slot]) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = keys[slot];
+                values[hole] = values[slot];
+                hole = slot;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+        size--;
+        return removed;
+    }
+
+    public void clear() {
+        size = 0;
+        allocate(MIN_CAPACITY);
+    }
+
+    private void grow() {
+        byte[][] oldKeys = keys;
+        ECKey[] oldValues = values;
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) insert(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private void insert(byte[] key, ECKey value) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != null) slot = (slot + 1) & mask;
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    private int findSlot(byte[] key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (Arrays.equals(keys[slot], key)) return slot;
+        }
+        return -1;
+    }
+
+    private static int hash(byte[] key) {
+        int h = key.length;
+        int end = Math.min(key.length, HASH_OFFSET + HASH_BYTES);
+        for (int i = HASH_OFFSET; i < end; i++) {
+            h = 31 * h + key[i];
+        }
+        return h ^ (h >>> 16);
+    }
+}
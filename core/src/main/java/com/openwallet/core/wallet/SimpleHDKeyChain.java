@@ -10,7 +10,6 @@ import org.bitcoinj.crypto.ChildNumber;
 import org.bitcoinj.crypto.DeterministicHierarchy;
 import org.bitcoinj.crypto.DeterministicKey;
 import org.bitcoinj.crypto.EncryptedData;
-import org.bitcoinj.crypto.HDKeyDerivation;
 import org.bitcoinj.crypto.HDUtils;
 import org.bitcoinj.crypto.KeyCrypter;
 import org.bitcoinj.crypto.KeyCrypterException;
@@ -88,6 +87,11 @@ public class SimpleHDKeyChain implements EncryptableKeyChain, KeyBag {
         return lookaheadSize / 3;
     }
 
+    // While restoring, the used keys are found far from the issued ones and the lookahead zone of each path grows by
+    // up to this many keys to find them in fewer round trips to the server. It is not saved with the chain.
+    private static final int MAX_DISCOVERY_LOOKAHEAD = LOOKAHEAD * 15;
+    private int externalDiscoveryLookahead, internalDiscoveryLookahead;
+
     // The parent keys for external keys (handed out to other people) and internal keys (used for change addresses).
     private DeterministicKey externalKey, internalKey;
     // How many keys on each path have actually been used. This may be fewer than the number that have been deserialized
@@ -99,6 +103,34 @@ public class SimpleHDKeyChain implements EncryptableKeyChain, KeyBag {
     // money.
     private final SimpleKeyChain simpleKeyChain;
 
+    // Adds the keys derived in a batch of many chains, see maybeLookAhead(BatchKeyDerivation)
+    private final BatchKeyDerivation.Listener batchListener = new BatchKeyDerivation.Listener() {
+        @Override
+        public void onKeysDerived(List<BatchKeyDerivation.Range> ranges) {
+            lock.lock();
+            try {
+                List<DeterministicKey> keys = new ArrayList<DeterministicKey>();
+                boolean lookAheadAgain = false;
+                for (BatchKeyDerivation.Range range : ranges) {
+                    // If the chain derived keys since the batch was created, the lookahead is done again
+                    if (hierarchy.getNumChildren(range.parent.getPath()) != range.firstChild) {
+                        lookAheadAgain = true;
+                        continue;
+                    }
+                    for (DeterministicKey key : range.getKeys()) {
+                        hierarchy.putKey(key);
+                        keys.add(key);
+                    }
+                }
+                // Add the keys of both paths at once, like maybeLookAhead()
+                if (!keys.isEmpty()) simpleKeyChain.importKeys(keys);
+                if (lookAheadAgain) maybeLookAhead();
+            } finally {
+                lock.unlock();
+            }
+        }
+    };
+
     /**
      * Creates a deterministic key chain that watches the given (public only) root key. You can use this to calculate
      * balances and generally follow along, but spending is not possible with such a chain. Currently you can't use
@@ -346,22 +378,13 @@ public class SimpleHDKeyChain implements EncryptableKeyChain, KeyBag {
 
     @Override
     public DeterministicKey findKeyFromPubHash(byte[] pubkeyHash) {
-        lock.lock();
-        try {
-            return (DeterministicKey) simpleKeyChain.findKeyFromPubHash(pubkeyHash);
-        } finally {
-            lock.unlock();
-        }
+        // The simple key chain index has its own lock
+        return (DeterministicKey) simpleKeyChain.findKeyFromPubHash(pubkeyHash);
     }
 
     @Override
     public DeterministicKey findKeyFromPubKey(byte[] pubkey) {
-        lock.lock();
-        try {
-            return (DeterministicKey) simpleKeyChain.findKeyFromPubKey(pubkey);
-        } finally {
-            lock.unlock();
-        }
+        return (DeterministicKey) simpleKeyChain.findKeyFromPubKey(pubkey);
     }
 
     @Nullable
@@ -387,6 +410,80 @@ public class SimpleHDKeyChain implements EncryptableKeyChain, KeyBag {
         }
     }
 
+    /**
+     * Mark the DeterministicKeys that match the pubkey hashes as used and look ahead once for all of them.
+     *
+     * When restoring a chain, the server reports used keys across the whole lookahead zone. If a batch moves the
+     * issued keys of a path by at least half of its zone, there are probably more used keys after it, so the zone is
+     * doubled, up to {@link #MAX_DISCOVERY_LOOKAHEAD} more keys than the lookahead size. A batch that moves the
+     * issued keys less returns it to the lookahead size.
+     *
+     * @return the number of pubkey hashes that matched a key
+     */
+    public int markPubHashesAsUsed(List<byte[]> pubkeyHashes) {
+        lock.lock();
+        try {
+            int oldIssuedExternal = issuedExternalKeys;
+            int oldIssuedInternal = issuedInternalKeys;
+            int found = 0;
+            for (byte[] pubkeyHash : pubkeyHashes) {
+                DeterministicKey k = (DeterministicKey) simpleKeyChain.findKeyFromPubHash(pubkeyHash);
+                if (k == null) continue;
+                found++;
+                int numChildren = k.getChildNumber().i() + 1;
+                if (k.getParent() == internalKey) {
+                    issuedInternalKeys = Math.max(issuedInternalKeys, numChildren);
+                } else if (k.getParent() == externalKey) {
+                    issuedExternalKeys = Math.max(issuedExternalKeys, numChildren);
+                }
+            }
+            if (issuedExternalKeys > oldIssuedExternal) {
+                externalDiscoveryLookahead = nextDiscoveryLookahead(externalDiscoveryLookahead,
+                        issuedExternalKeys - oldIssuedExternal);
+            }
+            if (issuedInternalKeys > oldIssuedInternal) {
+                internalDiscoveryLookahead = nextDiscoveryLookahead(internalDiscoveryLookahead,
+                        issuedInternalKeys - oldIssuedInternal);
+            }
+            if (issuedExternalKeys > oldIssuedExternal || issuedInternalKeys > oldIssuedInternal) {
+                maybeLookAhead();
+            }
+            return found;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int nextDiscoveryLookahead(int discoveryLookahead, int moved) {
+        int zone = lookaheadSize + discoveryLookahead;
+        if (moved * 2 >= zone) {
+            return Math.min(zone * 2 - lookaheadSize, MAX_DISCOVERY_LOOKAHEAD);
+        } else {
+            return 0;
+        }
+    }
+
+    private int getDiscoveryLookahead(DeterministicKey parent) {
+        return parent == internalKey ? internalDiscoveryLookahead : externalDiscoveryLookahead;
+    }
+
+    /**
+     * Get the number of keys after the issued ones that are looked ahead for the given purpose, it is larger than
+     * the lookahead size while restoring the chain. See {@link #markPubHashesAsUsed(List)}.
+     */
+    public int getDiscoveryLookaheadSize(KeyPurpose purpose) {
+        lock.lock();
+        try {
+            if (purpose == KeyPurpose.CHANGE) {
+                return lookaheadSize + internalDiscoveryLookahead;
+            } else {
+                return lookaheadSize + externalDiscoveryLookahead;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Mark the DeterministicKeys as used, if they match the pubkey
      * See {@link SimpleHDKeyChain#markKeyAsUsed(DeterministicKey)} for more info on this.
@@ -544,9 +641,13 @@ public class SimpleHDKeyChain implements EncryptableKeyChain, KeyBag {
 
     /**
      * Returns the key chain found in the given list of keys.
+     *
+     * The public keys are read from the serialized keys, so no key is derived here. The lookahead
+     * keys that were not saved are derived the first time they are needed.
      */
     public static SimpleHDKeyChain fromProtobuf(List<Protos.Key> keys, @Nullable KeyCrypter crypter) throws UnreadableWalletException {
         SimpleHDKeyChain chain = null;
+        List<DeterministicKey> loadedKeys = new ArrayList<DeterministicKey>(keys.size());
         int lookaheadSize = -1;
         // If the root key is a child of another hierarchy, the depth will be > 0
         int rootTreeSize = 0;
@@ -593,15 +694,15 @@ public class SimpleHDKeyChain implements EncryptableKeyChain, KeyBag {
                     }
                 }
                 chain.hierarchy.putKey(detkey);
-                chain.simpleKeyChain.importKey(detkey);
+                loadedKeys.add(detkey);
             }
         }
         if (chain == null) {
             throw new UnreadableWalletException("Could not create a key chain.");
         }
         checkState(lookaheadSize >= 0, "Negative lookahead size");
+        chain.simpleKeyChain.importKeys(loadedKeys);
         chain.setLookaheadSize(lookaheadSize);
-        chain.maybeLookAhead();
         return chain;
     }
 
@@ -809,7 +910,32 @@ public class SimpleHDKeyChain implements EncryptableKeyChain, KeyBag {
 
     private List<DeterministicKey> maybeLookAhead(DeterministicKey parent, int issued) {
         checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
-        return maybeLookAhead(parent, issued, getLookaheadSize(), getLookaheadThreshold());
+        return maybeLookAhead(parent, issued, lookaheadSize + getDiscoveryLookahead(parent), getLookaheadThreshold());
+    }
+
+    /**
+     * Like {@link #maybeLookAhead()} but the missing keys are only added to the batch, so that the
+     * keys of many chains are derived together. They are added to this chain when the batch is
+     * derived.
+     */
+    void maybeLookAhead(BatchKeyDerivation batch) {
+        lock.lock();
+        try {
+            addLookAhead(batch, externalKey, issuedExternalKeys);
+            addLookAhead(batch, internalKey, issuedInternalKeys);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addLookAhead(BatchKeyDerivation batch, DeterministicKey parent, int issued) {
+        checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
+        final int numChildren = hierarchy.getNumChildren(parent.getPath());
+        final int needed = issued + lookaheadSize + getDiscoveryLookahead(parent) +
+                getLookaheadThreshold() - numChildren;
+        if (needed > getLookaheadThreshold()) {
+            batch.add(parent, numChildren, needed, batchListener);
+        }
     }
 
     /**
@@ -829,15 +955,11 @@ public class SimpleHDKeyChain implements EncryptableKeyChain, KeyBag {
         log.info("{} keys needed for {} = {} issued + {} lookahead size + {} lookahead threshold - {} num children",
                 needed, parent.getPathAsString(), issued, lookaheadSize, lookaheadThreshold, numChildren);
 
-        List<DeterministicKey> result  = new ArrayList<DeterministicKey>(needed);
         long now = System.currentTimeMillis();
-        int nextChild = numChildren;
-        for (int i = 0; i < needed; i++) {
-            DeterministicKey key = HDKeyDerivation.deriveThisOrNextChildKey(parent, nextChild);
-            key = key.getPubOnly();
+        // Derive all the keys first and then add them, the derivation runs in parallel
+        List<DeterministicKey> result = BatchKeyDerivation.deriveChildren(parent, numChildren, needed);
+        for (DeterministicKey key : result) {
             hierarchy.putKey(key);
-            result.add(key);
-            nextChild = key.getChildNumber().num() + 1;
         }
         log.info("Took {} msec", System.currentTimeMillis() - now);
         return result;
@@ -924,8 +1046,8 @@ public class SimpleHDKeyChain implements EncryptableKeyChain, KeyBag {
         for (ECKey key : getKeys(true)) {
             DeterministicKey dKey = (DeterministicKey) key;
             if (isLeaf(dKey)) {
-                if (dKey.getParent().equals(internalKey) && dKey.getChildNumber().num() >= issuedInternalKeys + lookaheadSize) continue;
-                if (dKey.getParent().equals(externalKey) && dKey.getChildNumber().num() >= issuedExternalKeys + lookaheadSize) continue;
+                if (dKey.getParent().equals(internalKey) && dKey.getChildNumber().num() >= issuedInternalKeys + lookaheadSize + internalDiscoveryLookahead) continue;
+                if (dKey.getParent().equals(externalKey) && dKey.getChildNumber().num() >= issuedExternalKeys + lookaheadSize + externalDiscoveryLookahead) continue;
 
                 keys.add(dKey);
             }
@@ -5,20 +5,31 @@ import org.bitcoinj.core.ECKey;
 import org.bitcoinj.crypto.EncryptableItem;
 import org.bitcoinj.crypto.EncryptedData;
 import org.bitcoinj.crypto.KeyCrypter;
+import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.BasicKeyChain;
 
 import com.openwallet.core.util.KeyUtils;
 import com.google.protobuf.ByteString;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkState;
 
 /**
+ * A basic key chain that finds its keys with a {@link KeyIndex} by hash160 and by public key,
+ * instead of the ByteString maps of the {@link BasicKeyChain}.
+ *
  * @author John L. Jegutanis
  */
 public class SimpleKeyChain extends BasicKeyChain {
+    private final ReentrantLock indexLock = Threading.lock("SimpleKeyChain");
+    private final KeyIndex hashToKeys = new KeyIndex();
+    private final KeyIndex pubkeyToKeys = new KeyIndex();
 
     public SimpleKeyChain(KeyCrypter crypter) {
         super(crypter);
@@ -28,6 +39,81 @@ public class SimpleKeyChain extends BasicKeyChain {
         super();
     }
 
+    @Override
+    public int importKeys(List<? extends ECKey> keys) {
+        int imported = super.importKeys(keys);
+        indexKeys(keys);
+        return imported;
+    }
+
+    @Override
+    public void importKey(ECKey key) {
+        super.importKey(key);
+        indexKey(key);
+    }
+
+    private void indexKeys(List<? extends ECKey> keys) {
+        indexLock.lock();
+        try {
+            for (ECKey key : keys) {
+                // Already imported keys are kept by the basic key chain
+                if (!pubkeyToKeys.containsKey(key.getPubKey())) {
+                    hashToKeys.put(key.getPubKeyHash(), key);
+                    pubkeyToKeys.put(key.getPubKey(), key);
+                }
+            }
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private void indexKey(ECKey key) {
+        indexLock.lock();
+        try {
+            hashToKeys.put(key.getPubKeyHash(), key);
+            pubkeyToKeys.put(key.getPubKey(), key);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean removeKey(ECKey key) {
+        boolean removed = super.removeKey(key);
+        if (removed) {
+            indexLock.lock();
+            try {
+                hashToKeys.remove(key.getPubKeyHash());
+                pubkeyToKeys.remove(key.getPubKey());
+            } finally {
+                indexLock.unlock();
+            }
+        }
+        return removed;
+    }
+
+    @Nullable
+    @Override
+    public ECKey findKeyFromPubHash(byte[] pubkeyHash) {
+        indexLock.lock();
+        try {
+            return hashToKeys.get(pubkeyHash);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public ECKey findKeyFromPubKey(byte[] pubkey) {
+        indexLock.lock();
+        try {
+            return pubkeyToKeys.get(pubkey);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
     Map<ECKey, Protos.Key.Builder> toEditableProtobufs() {
         Map<ECKey, Protos.Key.Builder> result = new LinkedHashMap<ECKey, Protos.Key.Builder>();
         for (ECKey ecKey : getKeys()) {
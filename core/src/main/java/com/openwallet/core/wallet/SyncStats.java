@@ -0,0 +1,87 @@
+package com.openwallet.core.wallet;
+
+import com.openwallet.core.network.ConnectionStats;
+
+import javax.annotation.Nullable;
+
+/**
+ * The progress and the throughput of the synchronization of an account, at a point in time
+ *
+ * @author John L. Jegutanis
+ */
+public class SyncStats {
+    private final int addressesPendingSubscription;
+    private final int statusPendingUpdates;
+    private final int fetchingTransactions;
+    private final int outOfOrderTransactions;
+    private final long transactionsApplied;
+    private final long applyingMillis;
+    @Nullable private final ConnectionStats connectionStats;
+
+    public SyncStats(int addressesPendingSubscription, int statusPendingUpdates,
+                     int fetchingTransactions, int outOfOrderTransactions,
+                     long transactionsApplied, long applyingMillis,
+                     @Nullable ConnectionStats connectionStats) {
+        this.addressesPendingSubscription = addressesPendingSubscription;
+        this.statusPendingUpdates = statusPendingUpdates;
+        this.fetchingTransactions = fetchingTransactions;
+        this.outOfOrderTransactions = outOfOrderTransactions;
+        this.transactionsApplied = transactionsApplied;
+        this.applyingMillis = applyingMillis;
+        this.connectionStats = connectionStats;
+    }
+
+    public int getAddressesPendingSubscription() {
+        return addressesPendingSubscription;
+    }
+
+    public int getStatusPendingUpdates() {
+        return statusPendingUpdates;
+    }
+
+    public int getFetchingTransactions() {
+        return fetchingTransactions;
+    }
+
+    public int getOutOfOrderTransactions() {
+        return outOfOrderTransactions;
+    }
+
+    /**
+     * Get the number of transactions added to the account since it connected
+     */
+    public long getTransactionsApplied() {
+        return transactionsApplied;
+    }
+
+    /**
+     * Get the transactions added per second, from the connection until the last added transaction
+     */
+    public double getTransactionsPerSecond() {
+        if (transactionsApplied == 0) return 0;
+        return transactionsApplied * 1000.0 / Math.max(1, applyingMillis);
+    }
+
+    /**
+     * Get the statistics of the connection to the server or null if not connected
+     */
+    @Nullable
+    public ConnectionStats getConnectionStats() {
+        return connectionStats;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("addresses pending subscription: ").append(addressesPendingSubscription)
+                .append("\nstatus pending updates: ").append(statusPendingUpdates)
+                .append("\nfetching transactions: ").append(fetchingTransactions)
+                .append("\nout of order transactions: ").append(outOfOrderTransactions)
+                .append("\ntransactions applied: ").append(transactionsApplied)
+                .append(String.format(" (%.1f/s)", getTransactionsPerSecond()));
+        if (connectionStats != null) {
+            sb.append('\n').append(connectionStats);
+        }
+        return sb.toString();
+    }
+}
@@ -5,9 +5,7 @@ import com.openwallet.core.coins.FeePolicy;
 import com.openwallet.core.coins.Value;
 import com.openwallet.core.wallet.families.bitcoin.BitSendRequest;
 import com.openwallet.core.wallet.families.bitcoin.CoinSelection;
-import com.openwallet.core.wallet.families.bitcoin.CoinSelector;
 import com.openwallet.core.wallet.families.bitcoin.OutPointOutput;
-import com.google.common.collect.Lists;
 
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
@@ -31,7 +29,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -49,7 +46,7 @@ public class TransactionCreator {
     private final Coin minNonDust;
     private final Coin softDustLimit;
 
-    private final CoinSelector coinSelector = new WalletCoinSelector();
+    private final WalletCoinSelector coinSelector = new WalletCoinSelector();
     private final ReentrantLock lock; // TODO remove
 
     public TransactionCreator(TransactionWatcherWallet account) {
@@ -114,13 +111,13 @@ public class TransactionCreator {
                     }
             }
 
-            // Calculate a list of ALL potential candidates for spending and then ask a coin selector to provide us
+            // Get the list of ALL potential candidates for spending and then ask a coin selector to provide us
             // with the actual outputs that'll be used to gather the required amount of value. In this way, users
             // can customize coin selection policies.
             //
-            // Note that this code is poorly optimized: the spend candidates only alter when transactions in the wallet
-            // change - it could be pre-calculated and held in RAM, and this is probably an optimization worth doing.
-            LinkedList<OutPointOutput> candidates = calculateAllSpendCandidates(req);
+            // The spend candidates only alter when transactions in the wallet change, so the account keeps them
+            // sorted for the default coin selector until then.
+            List<OutPointOutput> candidates = calculateAllSpendCandidates(req);
             CoinSelection bestCoinSelection;
             TransactionOutput bestChangeOutput = null;
             if (!req.emptyWallet) {
@@ -133,9 +130,7 @@ public class TransactionCreator {
                 // We're being asked to empty the wallet. What this means is ensuring "tx" has only a single output
                 // of the total value we can currently spend as determined by the selector, and then subtracting the fee.
                 checkState(tx.getOutputs().size() == 1, "Empty wallet TX must have a single output only.");
-                CoinSelector selector = req.coinSelector == null ? coinSelector : req.coinSelector;
-                bestCoinSelection = selector.select(NetworkParameters.MAX_MONEY, candidates);
-                candidates = null;  // Selector took ownership and might have changed candidates. Don't access again.
+                bestCoinSelection = select(req, NetworkParameters.MAX_MONEY, candidates);
                 tx.getOutput(0).setValue(bestCoinSelection.valueGathered);
                 log.info("  emptying {}", bestCoinSelection.valueGathered.toFriendlyString());
             }
@@ -252,22 +247,24 @@ public class TransactionCreator {
      * keys for and which are not already marked as spent.
      * @param req
      */
-    LinkedList<OutPointOutput> calculateAllSpendCandidates(BitSendRequest req) {
-        lock.lock();
-        try {
-            LinkedList<OutPointOutput> candidates = Lists.newLinkedList();
-            for (OutPointOutput utxo : account.getUnspentOutputs(req.useUnsafeOutputs).values()) {
-                if (!req.useImmatureCoinbases && !utxo.isMature()) continue;
-                candidates.add(utxo);
-            }
-            return candidates;
-        } finally {
-            lock.unlock();
+    List<OutPointOutput> calculateAllSpendCandidates(BitSendRequest req) {
+        return account.getSpendCandidates(req.useUnsafeOutputs, req.useImmatureCoinbases);
+    }
+
+    /**
+     * Selects from the sorted candidates with the default coin selector. A custom selector gets a
+     * copy of them, as it is allowed to modify the list.
+     */
+    private CoinSelection select(BitSendRequest req, Coin target, List<OutPointOutput> candidates) {
+        if (req.coinSelector == null) {
+            return coinSelector.selectSorted(target, candidates);
+        } else {
+            return req.coinSelector.select(target, new ArrayList<OutPointOutput>(candidates));
         }
     }
 
     private FeeCalculation calculateFee(BitSendRequest req, Coin value, List<TransactionInput> originalInputs,
-                                        int numberOfSoftDustOutputs, LinkedList<OutPointOutput> candidates) throws InsufficientMoneyException {
+                                        int numberOfSoftDustOutputs, List<OutPointOutput> candidates) throws InsufficientMoneyException {
         checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
         Transaction tx = req.tx.getRawTransaction();
         FeeCalculation result = new FeeCalculation();
@@ -322,9 +319,7 @@ public class TransactionCreator {
             Coin additionalValueSelected = additionalValueForNextCategory;
 
             // Of the coins we could spend, pick some that we actually will spend.
-            CoinSelector selector = req.coinSelector == null ? coinSelector : req.coinSelector;
-            // selector is allowed to modify candidates list.
-            CoinSelection selection = selector.select(valueNeeded, candidates);
+            CoinSelection selection = select(req, valueNeeded, candidates);
             // Can we afford this?
             if (selection.valueGathered.compareTo(valueNeeded) < 0) {
                 valueMissing = valueNeeded.subtract(selection.valueGathered);
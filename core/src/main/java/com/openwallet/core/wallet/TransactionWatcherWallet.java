@@ -2,6 +2,7 @@ package com.openwallet.core.wallet;
 
 import com.openwallet.core.coins.CoinType;
 import com.openwallet.core.coins.Value;
+import com.openwallet.core.exceptions.AddressMalformedException;
 import com.openwallet.core.exceptions.TransactionBroadcastException;
 import com.openwallet.core.network.AddressStatus;
 import com.openwallet.core.network.BlockHeader;
@@ -9,7 +10,6 @@ import com.openwallet.core.network.ServerClient.HistoryTx;
 import com.openwallet.core.network.ServerClient.UnspentTx;
 import com.openwallet.core.network.interfaces.BlockchainConnection;
 import com.openwallet.core.network.interfaces.TransactionEventListener;
-import com.openwallet.core.util.BitAddressUtils;
 import com.openwallet.core.wallet.families.bitcoin.BitAddress;
 import com.openwallet.core.wallet.families.bitcoin.BitBlockchainConnection;
 import com.openwallet.core.wallet.families.bitcoin.BitTransaction;
@@ -17,6 +17,7 @@ import com.openwallet.core.wallet.families.bitcoin.BitTransactionEventListener;
 import com.openwallet.core.wallet.families.bitcoin.BitWalletTransaction;
 import com.openwallet.core.wallet.families.bitcoin.OutPointOutput;
 import com.openwallet.core.wallet.families.bitcoin.TrimmedOutPoint;
+import com.openwallet.core.wallet.families.bitcoin.UnspentOutputTable;
 import com.openwallet.core.wallet.families.bitcoin.TrimmedTransaction;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
@@ -24,6 +25,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.math.LongMath;
+import com.google.common.primitives.Ints;
 
 import org.bitcoinj.core.ScriptException;
 import org.bitcoinj.core.Sha256Hash;
@@ -42,13 +44,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
@@ -76,8 +83,17 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
     private int lastBlockSeenHeight = -1;
     private long lastBlockSeenTimeSecs = 0;
 
+    // The confirmed unspent outputs, packed to keep wallets with many outputs small
     @VisibleForTesting
-    final Map<TrimmedOutPoint, OutPointOutput> unspentOutputs;
+    final UnspentOutputTable unspentOutputs;
+
+    // The sum of the unspent outputs, updated every time an output is added or removed
+    private long unspentOutputsValue = 0;
+    // The ids of the scripts in the unspent outputs table that pay to each address, usually one.
+    // The table keeps the rows of each script, so the outputs of an address are found from them.
+    @VisibleForTesting final transient Map<AbstractAddress, int[]> unspentScriptIdsByAddress;
+    // The script ids already added to the map above
+    private final transient BitSet indexedScriptIds;
 
     // Holds the status of every address we are watching. When connecting to the server, if we get a
     // different status for a particular address this means that there are new transactions for that
@@ -91,8 +107,13 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
     @VisibleForTesting final transient Map<Sha256Hash, Integer> fetchingTransactions;
     @VisibleForTesting final transient Map<Integer, Long> blockTimes;
     @VisibleForTesting final transient Map<Integer, Set<Sha256Hash>> missingTimestamps;
+    // Confirmed transactions that are not yet TX_DEPTH_SAVE_THRESHOLD blocks deep. Only these are
+    // updated when a new block arrives, the depth of the others is updated when they are read.
+    @VisibleForTesting final transient Set<Sha256Hash> shallowTransactions;
     // Transactions that are waiting to be added once transactions that they depend on are added
     final transient Map<Sha256Hash, Map.Entry<BitTransaction, Set<Sha256Hash>>> outOfOrderTransactions;
+    // The out of order transactions that are waiting for each missing transaction
+    @VisibleForTesting final transient Map<Sha256Hash, Set<Sha256Hash>> waitingTransactions;
 
     // The various pools below give quick access to wallet-relevant transactions by the state they're in:
     //
@@ -106,13 +127,59 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
     final Map<Sha256Hash, BitTransaction> rawTransactions;
     private BitBlockchainConnection blockchainConnection;
     private List<ListenerRegistration<WalletAccountEventListener>> listeners;
+    private final transient WalletAccountEventNotifier eventNotifier;
 
     // Wallet that this account belongs
     @Nullable private transient Wallet wallet = null;
 
     @VisibleForTesting transient Value lastBalance;
+
+    // The state that the getters read without locking, published at the end of each change
+    @Nullable private transient volatile Snapshot snapshot;
+    // Incremented every time the state changes, written with the lock held
+    private transient volatile long stateVersion = 0;
+    // Incremented when the transactions or the unspent outputs change, written with the lock held
+    private transient volatile long valuesVersion = 0;
+    // The parts of the snapshot that must be copied again when it is published
+    private transient boolean snapshotTransactionsChanged = true;
+    private transient boolean snapshotStatusesChanged = true;
+    // The outputs that can be spent, sorted for the coin selector and created again when the state changes
+    @Nullable private transient SpendCandidates spendCandidates;
     transient WalletConnectivityStatus lastConnectivity = WalletConnectivityStatus.DISCONNECTED;
 
+    // The transactions added since the last connection and when, used for the sync statistics
+    private transient long connectedAt = 0;
+    private transient long lastTransactionAppliedAt = 0;
+    private transient long transactionsApplied = 0;
+
+    /**
+     * An immutable view of the wallet state. A new snapshot is published at the end of each
+     * change, the readers that hold the previous one can keep using it. The maps that did not
+     * change are shared with the previous snapshot.
+     */
+    private static final class Snapshot {
+        // The state version that this snapshot shows
+        final long version;
+        // The last seen block height, the depths of the transactions are updated for it
+        final int height;
+        final ImmutableMap<Sha256Hash, BitTransaction> transactions;
+        final ImmutableMap<Sha256Hash, BitTransaction> pending;
+        final ImmutableList<AddressStatus> addressStatuses;
+        // The balance of the unspent outputs
+        final Value unspentBalance;
+
+        Snapshot(long version, int height, ImmutableMap<Sha256Hash, BitTransaction> transactions,
+                 ImmutableMap<Sha256Hash, BitTransaction> pending,
+                 ImmutableList<AddressStatus> addressStatuses, Value unspentBalance) {
+            this.version = version;
+            this.height = height;
+            this.transactions = transactions;
+            this.pending = pending;
+            this.addressStatuses = addressStatuses;
+            this.unspentBalance = unspentBalance;
+        }
+    }
+
     private Runnable saveLaterRunnable = new Runnable() {
         @Override
         public void run() {
@@ -130,7 +197,9 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
     // Constructor
     public TransactionWatcherWallet(CoinType coinType, String id) {
         super(coinType, id);
-        unspentOutputs = new HashMap<>();
+        unspentOutputs = new UnspentOutputTable(coinType);
+        unspentScriptIdsByAddress = new HashMap<>();
+        indexedScriptIds = new BitSet();
         addressesStatus = new HashMap<>();
         addressesSubscribed = new ArrayList<>();
         addressesPendingSubscription = new ArrayList<>();
@@ -142,7 +211,10 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         pending = new HashMap<>();
         rawTransactions = new HashMap<>();
         outOfOrderTransactions = new HashMap<>();
+        waitingTransactions = new HashMap<>();
+        shallowTransactions = new HashSet<>();
         listeners = new CopyOnWriteArrayList<>();
+        eventNotifier = new WalletAccountEventNotifier(this, listeners);
         lastBalance = type.value(0);
     }
 
@@ -187,6 +259,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
     public Iterable<BitWalletTransaction> getWalletTransactions() {
         lock.lock();
         try {
+            updateBlockDepth(confirmed.values());
             Set<BitWalletTransaction> all = new HashSet<>();
             addWalletTransactionsToSet(all, WalletTransaction.Pool.CONFIRMED, confirmed.values());
             addWalletTransactionsToSet(all, WalletTransaction.Pool.PENDING, pending.values());
@@ -204,6 +277,8 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         try {
             if (rawTransactions.containsKey(tx.getHash())) return;
             rawTransactions.put(tx.getHash(), tx);
+            trackIfShallow(tx);
+            invalidateSnapshot();
             switch (pool) {
                 case CONFIRMED:
                     checkState(confirmed.put(tx.getHash(), tx) == null);
@@ -219,6 +294,111 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         }
     }
 
+    /**
+     * Get the current snapshot of the wallet. The snapshot is published when the wallet changes,
+     * so the lock is only taken if a change was not published yet.
+     */
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current != null && current.version == stateVersion) return current;
+
+        lock.lock();
+        try {
+            publishSnapshot();
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Publishes the changes for the readers. Called at the end of each batch of changes, only the
+     * maps that changed are copied.
+     */
+    private void publishSnapshot() {
+        checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
+        Snapshot previous = snapshot;
+        if (previous != null && previous.version == stateVersion) return;
+
+        ImmutableMap<Sha256Hash, BitTransaction> transactions;
+        ImmutableMap<Sha256Hash, BitTransaction> pendingTransactions;
+        if (previous == null || snapshotTransactionsChanged) {
+            transactions = ImmutableMap.copyOf(rawTransactions);
+            pendingTransactions = ImmutableMap.copyOf(pending);
+        } else {
+            transactions = previous.transactions;
+            pendingTransactions = previous.pending;
+        }
+        // Only the recent transactions are updated when a block arrives, the depths of the rest
+        // are updated here, before the readers can see the new height
+        if (previous == null || snapshotTransactionsChanged ||
+                previous.height != lastBlockSeenHeight) {
+            updateBlockDepth(rawTransactions.values());
+        }
+
+        ImmutableList<AddressStatus> addressStatuses;
+        if (previous == null || snapshotStatusesChanged) {
+            ImmutableList.Builder<AddressStatus> statuses = ImmutableList.builder();
+            for (Map.Entry<AbstractAddress, String> status : addressesStatus.entrySet()) {
+                statuses.add(new AddressStatus(status.getKey(), status.getValue()));
+            }
+            addressStatuses = statuses.build();
+        } else {
+            addressStatuses = previous.addressStatuses;
+        }
+
+        snapshotTransactionsChanged = false;
+        snapshotStatusesChanged = false;
+        snapshot = new Snapshot(stateVersion, lastBlockSeenHeight, transactions, pendingTransactions,
+                addressStatuses, type.value(unspentOutputsValue));
+    }
+
+    /**
+     * Must be called after any change that is visible in the snapshot
+     */
+    private void invalidateSnapshot() {
+        invalidateSnapshot(true, true);
+    }
+
+    /**
+     * Must be called after any change that is visible in the snapshot. The flags tell if the
+     * transactions or the address statuses changed, otherwise their maps are not copied again.
+     */
+    private void invalidateSnapshot(boolean transactionsChanged, boolean statusesChanged) {
+        checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
+        snapshotTransactionsChanged |= transactionsChanged;
+        snapshotStatusesChanged |= statusesChanged;
+        stateVersion++;
+        if (transactionsChanged) valuesVersion++;
+    }
+
+    /**
+     * Must be called after a change to the unspent outputs, or to a transaction that changes
+     * which outputs can be spent
+     */
+    private void invalidateValues() {
+        checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
+        valuesVersion++;
+        invalidateSnapshot(false, false);
+    }
+
+    /**
+     * Get the version of the wallet state, it changes every time the state changes. Does not lock
+     * nor create a new snapshot, so it is cheap to call to check if a computed value is stale.
+     */
+    public long getSnapshotVersion() {
+        return stateVersion;
+    }
+
+    /**
+     * Get the version of the transactions and the unspent outputs of this wallet. The values that
+     * a transaction sends and receives only depend on them, so unlike the snapshot version it does
+     * not change with the new blocks or the address statuses.
+     */
+    public long getValuesVersion() {
+        return valuesVersion;
+    }
+
     private static void addWalletTransactionsToSet(Set<BitWalletTransaction> txs,
                                                    WalletTransaction.Pool poolType, Collection<BitTransaction> pool) {
         for (BitTransaction tx : pool) {
@@ -348,6 +528,8 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         rawTransactions.remove(hash);
         confirmed.remove(hash);
         pending.remove(hash);
+        shallowTransactions.remove(hash);
+        invalidateSnapshot();
     }
 
     /**
@@ -376,6 +558,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
             guessSource(tx);
             simpleAddTransaction(pool, tx);
             trimTransaction(tx.getHash());
+            publishSnapshot();
             if (tx.getSource() == Source.SELF) queueOnNewBalance();
         } finally {
             lock.unlock();
@@ -394,6 +577,8 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         if (tx.getSource() == Source.UNKNOWN) {
             boolean isReceiving = tx.getValue(this).isPositive();
 
+            // The source tells if the outputs of a pending transaction can be spent
+            invalidateValues();
             if (isReceiving) {
                 tx.setSource(Source.NETWORK);
             } else {
@@ -411,6 +596,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         try {
             BitTransaction tx = rawTransactions.get(hash);
             if (tx != null) {
+                maybeUpdateBlockDepth(tx, false);
                 return tx.getRawTransaction();
             } else {
                 return null;
@@ -428,8 +614,10 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         try {
             HashMap<Sha256Hash, BitTransaction> txs = new HashMap<>();
             for (Sha256Hash hash : hashes) {
-                if (rawTransactions.containsKey(hash)) {
-                    txs.put(hash, rawTransactions.get(hash));
+                BitTransaction tx = rawTransactions.get(hash);
+                if (tx != null) {
+                    maybeUpdateBlockDepth(tx, false);
+                    txs.put(hash, tx);
                 }
             }
             return txs;
@@ -454,11 +642,17 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
             blockTimes.clear();
             missingTimestamps.clear();
             unspentOutputs.clear();
+            unspentScriptIdsByAddress.clear();
+            indexedScriptIds.clear();
+            unspentOutputsValue = 0;
             confirmed.clear();
             pending.clear();
             rawTransactions.clear();
+            shallowTransactions.clear();
             addressesStatus.clear();
             clearTransientState();
+            invalidateSnapshot();
+            publishSnapshot();
         } finally {
             lock.unlock();
         }
@@ -489,6 +683,8 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         lock.lock();
         try {
             this.lastBlockSeenHeight = lastBlockSeenHeight;
+            invalidateSnapshot(false, false);
+            publishSnapshot();
         } finally {
             lock.unlock();
         }
@@ -555,12 +751,26 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         return getBalance(false);
     }
 
+    /**
+     * Get the balance of the unspent outputs and the outputs of the pending transactions that the
+     * wallet sent. If includeReceiving is true, also include the outputs of the pending incoming
+     * transactions.
+     *
+     * The value of the unspent outputs is kept up to date as they change, so only the pending
+     * transactions are checked. Their source can change at any time, so they are not cached.
+     */
     public Value getBalance(boolean includeReceiving) {
+        // Without pending transactions the balance is the value of the unspent outputs
+        Snapshot current = snapshot;
+        if (current != null && current.version == stateVersion && current.pending.isEmpty()) {
+            return current.unspentBalance;
+        }
+
         lock.lock();
         try {
-            long value = 0;
-            for (OutPointOutput utxo : getUnspentOutputs(includeReceiving).values()) {
-                value = LongMath.checkedAdd(value, utxo.getValueLong());
+            long value = unspentOutputsValue;
+            if (!pending.isEmpty()) {
+                value = LongMath.checkedAdd(value, getPendingBalanceChange(includeReceiving));
             }
             return type.value(value);
         } finally {
@@ -568,6 +778,107 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         }
     }
 
+    /**
+     * Get how much the pending transactions change the value of the unspent outputs. Only the
+     * pending transactions are checked, the unspent outputs are not copied.
+     */
+    private long getPendingBalanceChange(boolean includeUnsafe) {
+        checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
+        long change = 0;
+        Set<TrimmedOutPoint> spentTxo = new HashSet<>();
+        Set<TrimmedOutPoint> txSpendingTxo = new HashSet<>();
+        Map<TrimmedOutPoint, Long> pendingOutputs = new HashMap<>();
+
+        for (BitTransaction tx : pending.values()) {
+            if (includeUnsafe || tx.getSource() == Source.SELF) {
+                boolean isDoubleSpending = false;
+                txSpendingTxo.clear();
+                for (TransactionInput txi : tx.getInputs()) {
+                    TrimmedOutPoint outPoint = TrimmedOutPoint.get(txi);
+                    if (spentTxo.contains(outPoint)) {
+                        isDoubleSpending = true;
+                        break;
+                    }
+                    txSpendingTxo.add(outPoint);
+                }
+
+                if (isDoubleSpending) continue;
+
+                spentTxo.addAll(txSpendingTxo);
+
+                List<TransactionOutput> outputs = tx.getOutputs();
+                for (int i = 0; i < outputs.size(); i++) {
+                    TransactionOutput output = outputs.get(i);
+                    if (output.isMineOrWatched(this)) {
+                        TrimmedOutPoint outPoint = new TrimmedOutPoint(type, i, tx.getHash());
+                        // Outputs already in the UTXO set are counted once
+                        if (!unspentOutputs.containsKey(outPoint)) {
+                            pendingOutputs.put(outPoint, output.getValue().value);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (Long value : pendingOutputs.values()) {
+            change = LongMath.checkedAdd(change, value);
+        }
+
+        // Remove any outputs that are spent
+        for (TrimmedOutPoint spent : spentTxo) {
+            Long pendingValue = pendingOutputs.get(spent);
+            if (pendingValue != null) {
+                change -= pendingValue;
+            } else {
+                OutPointOutput utxo = unspentOutputs.get(spent);
+                if (utxo != null) change -= utxo.getValueLong();
+            }
+        }
+
+        return change;
+    }
+
+    private void putUnspentOutput(OutPointOutput utxo) {
+        checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
+        OutPointOutput previous = unspentOutputs.put(utxo);
+        if (previous != null) unspentOutputsValue -= previous.getValueLong();
+        unspentOutputsValue = LongMath.checkedAdd(unspentOutputsValue, utxo.getValueLong());
+        invalidateValues();
+
+        // Only a script that is new to the table needs its address
+        int scriptId = unspentOutputs.getScriptId(utxo.getOutPoint());
+        if (!indexedScriptIds.get(scriptId)) {
+            indexedScriptIds.set(scriptId);
+            AbstractAddress address = getUnspentOutputAddress(utxo);
+            if (address != null) {
+                int[] scriptIds = unspentScriptIdsByAddress.get(address);
+                unspentScriptIdsByAddress.put(address, scriptIds == null ?
+                        new int[]{scriptId} : Ints.concat(scriptIds, new int[]{scriptId}));
+            }
+        }
+    }
+
+    private void removeUnspentOutput(TrimmedOutPoint outPoint) {
+        checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
+        OutPointOutput removed = unspentOutputs.remove(outPoint);
+        if (removed != null) {
+            unspentOutputsValue -= removed.getValueLong();
+            invalidateValues();
+        }
+    }
+
+    /**
+     * Get the address that can spend the output or null if the script is not a standard one
+     */
+    @Nullable
+    private AbstractAddress getUnspentOutputAddress(OutPointOutput utxo) {
+        try {
+            return BitAddress.from(type, utxo.getScriptPubKey());
+        } catch (AddressMalformedException | ScriptException e) {
+            return null;
+        }
+    }
+
     /**
      * Sets that the specified status is currently updating i.e. getting transactions.
      *
@@ -614,6 +925,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
                 statusPendingUpdates.remove(newStatus.getAddress());
             }
             addressesStatus.put(newStatus.getAddress(), newStatus.getStatus());
+            invalidateSnapshot(false, true);
             queueOnConnectivity();
         }
         finally {
@@ -669,17 +981,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
     }
 
     public List<AddressStatus> getAllAddressStatus() {
-        lock.lock();
-        try {
-            ArrayList<AddressStatus> statuses = new ArrayList<>(addressesStatus.size());
-            for (Map.Entry<AbstractAddress, String> status : addressesStatus.entrySet()) {
-                statuses.add(new AddressStatus(status.getKey(), status.getValue()));
-            }
-            return statuses;
-        }
-        finally {
-            lock.unlock();
-        }
+        return getSnapshot().addressStatuses;
     }
 
     /**
@@ -719,12 +1021,22 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         try {
             lastBlockSeenTimeSecs = header.getTimestamp();
             lastBlockSeenHeight = header.getBlockHeight();
+            invalidateSnapshot(false, false);
             updateTransactionTimes(header);
-            for (BitTransaction tx : rawTransactions.values()) {
+            // Only the recent transactions are updated, the rest when the snapshot is published
+            Iterator<Sha256Hash> iterator = shallowTransactions.iterator();
+            while (iterator.hasNext()) {
+                BitTransaction tx = rawTransactions.get(iterator.next());
+                if (tx == null || tx.getConfidenceType() != BUILDING) {
+                    iterator.remove();
+                    continue;
+                }
                 // Save wallet when we have new TXs
-                if (tx.getDepthInBlocks() < TX_DEPTH_SAVE_THRESHOLD) shouldSave = true;
+                shouldSave = true;
                 maybeUpdateBlockDepth(tx, true);
+                if (tx.getDepthInBlocks() >= TX_DEPTH_SAVE_THRESHOLD) iterator.remove();
             }
+            publishSnapshot();
             queueOnNewBlock();
         } finally {
             lock.unlock();
@@ -732,6 +1044,24 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         if (shouldSave) walletSaveLater();
     }
 
+    private void updateBlockDepth(Collection<BitTransaction> txs) {
+        checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
+        for (BitTransaction tx : txs) {
+            maybeUpdateBlockDepth(tx, false);
+        }
+    }
+
+    /**
+     * Tracks the transaction if it is confirmed but not yet deep enough, so that its depth is
+     * updated when new blocks arrive
+     */
+    private void trackIfShallow(BitTransaction tx) {
+        checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
+        if (tx.getConfidenceType() == BUILDING && tx.getDepthInBlocks() < TX_DEPTH_SAVE_THRESHOLD) {
+            shallowTransactions.add(tx.getHash());
+        }
+    }
+
     private void maybeUpdateBlockDepth(BitTransaction tx, boolean updateUtxoSet) {
         checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
         if (tx.getConfidenceType() != BUILDING) return;
@@ -742,10 +1072,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
             // Update unspent outputs
             if (updateUtxoSet) {
                 for (TransactionOutput output : tx.getOutputs(false)) {
-                    OutPointOutput unspentOutput = unspentOutputs.get(TrimmedOutPoint.get(output));
-                    if (unspentOutput != null) {
-                        unspentOutput.setDepthInBlocks(newDepth);
-                    }
+                    unspentOutputs.setDepthInBlocks(output.getOutPointFor(), newDepth);
                 }
             }
         }
@@ -786,34 +1113,59 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
 
     @Override
     public void onAddressStatusUpdate(AddressStatus status) {
-        log.debug("Got a status {}", status);
+        onAddressStatusesUpdate(ImmutableList.of(status));
+    }
+
+    /**
+     * Compares all the statuses with the known ones in a single pass and only requests the
+     * transactions of the addresses that changed
+     */
+    @Override
+    public void onAddressStatusesUpdate(List<AddressStatus> statuses) {
         lock.lock();
         try {
-            confirmAddressSubscription(status.getAddress());
-            if (status.getStatus() != null) {
-                markAddressAsUsed(status.getAddress());
-                subscribeToAddressesIfNeeded();
-
-                if (isAddressStatusChanged(status)) {
-                    // Status changed, time to update
-                    if (registerStatusForUpdate(status)) {
-                        log.info("Must get transactions for address {}, status {}",
-                                status.getAddress(), status.getStatus());
-
-                        if (blockchainConnection != null) {
-                            blockchainConnection.getUnspentTx(status, this);
-                            blockchainConnection.getHistoryTx(status, this);
+            boolean committedStatus = false;
+            List<AbstractAddress> usedAddresses = new ArrayList<>();
+            List<AddressStatus> changedStatuses = new ArrayList<>();
+            for (AddressStatus status : statuses) {
+                log.debug("Got a status {}", status);
+                confirmAddressSubscription(status.getAddress());
+                if (status.getStatus() != null) {
+                    usedAddresses.add(status.getAddress());
+
+                    if (isAddressStatusChanged(status)) {
+                        // Status changed, time to update
+                        if (registerStatusForUpdate(status)) {
+                            changedStatuses.add(status);
+                        } else {
+                            log.info("Status {} already updating", status.getStatus());
                         }
-                    } else {
-                        log.info("Status {} already updating", status.getStatus());
                     }
+                } else {
+                    // Address not used, just update the status
+                    commitAddressStatus(status);
+                    committedStatus = true;
                 }
             }
-            else {
-                // Address not used, just update the status
-                commitAddressStatus(status);
-                tryToApplyState();
+
+            // Using addresses could make new addresses available for watching
+            if (!usedAddresses.isEmpty()) {
+                markAddressesAsUsed(usedAddresses);
+                subscribeToAddressesIfNeeded();
             }
+
+            for (AddressStatus status : changedStatuses) {
+                log.info("Must get transactions for address {}, status {}",
+                        status.getAddress(), status.getStatus());
+
+                if (blockchainConnection != null) {
+                    blockchainConnection.getUnspentTx(status, this);
+                    blockchainConnection.getHistoryTx(status, this);
+                }
+            }
+
+            if (committedStatus) tryToApplyState();
+            publishSnapshot();
         }
         finally {
             lock.unlock();
@@ -834,6 +1186,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
             else {
                 log.info("Ignoring unspent tx call because no entry found or newer entry.");
             }
+            publishSnapshot();
         }
         finally {
             lock.unlock();
@@ -853,6 +1206,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
             } else {
                 log.info("Ignoring history tx call because no entry found or newer entry.");
             }
+            publishSnapshot();
         }
         finally {
             lock.unlock();
@@ -906,18 +1260,13 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
         checkState(!status.isUnspentTxStateApplied(), "Unspent tx state already applied");
 
-        // Get all the outputs that relate this this address, we will remove some of them if they
-        // are not present in this status update
-        AbstractAddress address = status.getAddress();
-        Set<TrimmedOutPoint> notPresentInStatus = new HashSet<>();
-        for (Map.Entry<TrimmedOutPoint, OutPointOutput> utxo : unspentOutputs.entrySet()) {
-            if (BitAddressUtils.producesAddress(utxo.getValue().getScriptPubKey(), address)) {
-                notPresentInStatus.add(utxo.getKey());
-            }
-        }
+        // The rows of the outputs in this status, the other outputs of this address are removed
+        Collection<UnspentTx> unspentTxs = status.getUnspentTxs();
+        int[] presentRows = new int[unspentTxs.size()];
+        int presentCount = 0;
 
         // Update all the unspent outputs in this status
-        for (UnspentTx unspentTx : status.getUnspentTxs()) {
+        for (UnspentTx unspentTx : unspentTxs) {
             TrimmedOutPoint outPoint =
                     new TrimmedOutPoint(type, unspentTx.getTxPos(), unspentTx.getTxHash());
 
@@ -934,16 +1283,24 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
                     utxo.setAppearedAtChainHeight(tx.getAppearedAtChainHeight());
                     utxo.setDepthInBlocks(tx.getDepthInBlocks());
                 }
-                unspentOutputs.put(utxo.getOutPoint(), utxo);
+                putUnspentOutput(utxo);
             }
 
-            // Mark this utxo to not be removed
-            notPresentInStatus.remove(outPoint);
+            // Mark this utxo to not be removed, adding outputs does not move the existing rows
+            presentRows[presentCount++] = unspentOutputs.getRow(outPoint);
         }
 
         // Remove all unspent outputs that were not present in this address status
-        for (TrimmedOutPoint toRemove : notPresentInStatus) {
-            unspentOutputs.remove(toRemove);
+        int[] scriptIds = unspentScriptIdsByAddress.get(status.getAddress());
+        if (scriptIds != null) {
+            for (int scriptId : scriptIds) {
+                long removedValue =
+                        unspentOutputs.retainScriptOutputs(scriptId, presentRows, presentCount);
+                if (removedValue > 0) {
+                    unspentOutputsValue -= removedValue;
+                    invalidateValues();
+                }
+            }
         }
 
         status.setUnspentTxStateApplied(true);
@@ -993,15 +1350,14 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
     private void setAppearedAtChainHeight(BitTransaction tx, int height, boolean updateUtxoSet) {
         checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
         tx.setAppearedAtChainHeight(height);
+        if (rawTransactions.containsKey(tx.getHash())) trackIfShallow(tx);
         fetchTimestamp(tx, height);
         // Update unspent outputs
         if (updateUtxoSet) {
             for (TransactionOutput output : tx.getOutputs(false)) {
-                OutPointOutput unspentOutput = unspentOutputs.get(TrimmedOutPoint.get(output));
-                if (unspentOutput != null) {
-                    unspentOutput.setAppearedAtChainHeight(height);
-                }
+                unspentOutputs.setAppearedAtChainHeight(output.getOutPointFor(), height);
             }
+            invalidateValues();
         }
     }
 
@@ -1034,6 +1390,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
                 // Transaction is confirmed, move it
                 if (pending.remove(tx.getHash()) != null) {
                     confirmed.put(tx.getHash(), tx);
+                    invalidateSnapshot();
                     trimTransaction(tx.getHash());
                 }
             }
@@ -1045,21 +1402,35 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
     private void fetchTransactionsIfNeeded(List<? extends HistoryTx> historyTxes) {
         checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
 
+        List<Sha256Hash> txHashes = new ArrayList<>();
         for (HistoryTx historyTx : historyTxes) {
-            fetchTransactionIfNeeded(historyTx.getTxHash(), historyTx.getHeight());
+            if (queueTransactionFetchIfNeeded(historyTx.getTxHash(), historyTx.getHeight())) {
+                txHashes.add(historyTx.getTxHash());
+            }
         }
+        fetchTransactions(txHashes);
     }
 
-    private void fetchTransactionIfNeeded(Sha256Hash txHash, @Nullable Integer height) {
+    private void fetchTransactions(List<Sha256Hash> txHashes) {
+        checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
+        // Request all the transactions at once so that the calls are pipelined
+        if (!txHashes.isEmpty() && blockchainConnection != null) {
+            blockchainConnection.getTransactions(txHashes, this);
+        }
+    }
+
+    /**
+     * Marks the transaction as fetching if it is not already available or queued. Returns true if
+     * the transaction must be fetched.
+     */
+    private boolean queueTransactionFetchIfNeeded(Sha256Hash txHash, @Nullable Integer height) {
         checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
 
         // Check if need to fetch the transaction
         if (!isTransactionAvailableOrQueued(txHash)) {
             fetchingTransactions.put(txHash, height);
             log.info("Going to fetch transaction with hash {}", txHash);
-            if (blockchainConnection != null) {
-                blockchainConnection.getTransaction(txHash, this);
-            }
+            return true;
         } else if (fetchingTransactions.containsKey(txHash)) {
             // Check if we should update the confirmation height
             Integer txHeight = fetchingTransactions.get(txHash);
@@ -1067,6 +1438,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
                 fetchingTransactions.put(txHash, height);
             }
         }
+        return false;
     }
 
     private boolean isTransactionAvailableOrQueued(Sha256Hash txHash) {
@@ -1090,61 +1462,96 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
     void addNewTransactionIfNeeded(BitTransaction tx) {
         lock.lock();
         try {
-            Sha256Hash hash = tx.getHash();
-
-            // If was fetching this tx, remove it
-            Integer appearedInHeight = fetchingTransactions.remove(hash);
-
-            // This tx not in wallet, add it
-            if (!rawTransactions.containsKey(hash) && !outOfOrderTransactions.containsKey(hash)) {
-                if (tx.getConfidenceType() == UNKNOWN) {
-                    // Set if transaction is confirmed
-                    if (appearedInHeight != null && appearedInHeight > 0) {
-                        setAppearedAtChainHeight(tx, appearedInHeight, false);
-                        maybeUpdateBlockDepth(tx, false);
-                    } else {
-                        tx.setConfidenceType(PENDING);
-                    }
-                }
+            // Adding a transaction can release the out of order transactions that were waiting for
+            // it, they are added in dependency order without recursion
+            ArrayDeque<BitTransaction> readyTransactions = new ArrayDeque<>();
+            readyTransactions.add(tx);
+            while ((tx = readyTransactions.poll()) != null) {
+                if (addNewTransaction(tx)) releaseWaitingTransactions(tx.getHash(), readyTransactions);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-                // Check if some input transactions are available
-                Set<Sha256Hash> missingTransactions = new HashSet<>();
-                for (TransactionInput input : tx.getInputs()) {
-                    Sha256Hash dependencyTx = input.getOutpoint().getHash();
-                    // If this transaction depends on a previous transaction that is yet fetched
-                    if (isInputMine(input) && !rawTransactions.containsKey(dependencyTx)) {
-                        missingTransactions.add(dependencyTx);
-                    }
+    /**
+     * Adds the transaction if it is not in the wallet and all the transactions it depends on are
+     * available, otherwise it is kept as an out of order transaction. Returns true if added.
+     */
+    private boolean addNewTransaction(BitTransaction tx) {
+        checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
+        Sha256Hash hash = tx.getHash();
+
+        // If was fetching this tx, remove it
+        Integer appearedInHeight = fetchingTransactions.remove(hash);
+
+        // This tx already in wallet
+        if (rawTransactions.containsKey(hash) || outOfOrderTransactions.containsKey(hash)) {
+            return false;
+        }
+
+        if (tx.getConfidenceType() == UNKNOWN) {
+            // Set if transaction is confirmed
+            if (appearedInHeight != null && appearedInHeight > 0) {
+                setAppearedAtChainHeight(tx, appearedInHeight, false);
+                maybeUpdateBlockDepth(tx, false);
+            } else {
+                tx.setConfidenceType(PENDING);
+            }
+        }
+
+        // Check if some input transactions are available
+        Set<Sha256Hash> missingTransactions = new HashSet<>();
+        for (TransactionInput input : tx.getInputs()) {
+            Sha256Hash dependencyTx = input.getOutpoint().getHash();
+            // If this transaction depends on a previous transaction that is yet fetched
+            if (isInputMine(input) && !rawTransactions.containsKey(dependencyTx)) {
+                missingTransactions.add(dependencyTx);
+            }
+        }
+        if (!missingTransactions.isEmpty()) {
+            outOfOrderTransactions.put(hash,
+                    new AbstractMap.SimpleImmutableEntry<>(tx, missingTransactions));
+            // Fetch the missing Transactions
+            List<Sha256Hash> txHashes = new ArrayList<>();
+            for (Sha256Hash missingTx : missingTransactions) {
+                Set<Sha256Hash> waiting = waitingTransactions.get(missingTx);
+                if (waiting == null) {
+                    waiting = new HashSet<>();
+                    waitingTransactions.put(missingTx, waiting);
                 }
-                if (!missingTransactions.isEmpty()) {
-                    outOfOrderTransactions.put(hash,
-                            new AbstractMap.SimpleImmutableEntry<>(tx, missingTransactions));
-                    // Fetch the missing Transactions
-                    for (Sha256Hash missingTx : missingTransactions) {
-                        fetchTransactionIfNeeded(missingTx, appearedInHeight);
-                    }
-                    return;
+                waiting.add(hash);
+                if (queueTransactionFetchIfNeeded(missingTx, appearedInHeight)) {
+                    txHashes.add(missingTx);
                 }
+            }
+            fetchTransactions(txHashes);
+            return false;
+        }
 
-                addWalletTransaction(null, tx, true);
-
-                // Check if out of order transactions can be added
-                for (Map.Entry<BitTransaction, Set<Sha256Hash>> outOfOrderTx :
-                        Lists.newLinkedList(outOfOrderTransactions.values())) {
-                    Set<Sha256Hash> missingTxs = outOfOrderTx.getValue();
-                    // Check if this tx satisfies the dependency
-                    if (missingTxs.contains(hash)) {
-                        missingTxs.remove(hash);
-                        // Try to add the out of order transaction
-                        if (missingTxs.isEmpty()) {
-                            outOfOrderTransactions.remove(outOfOrderTx.getKey().getHash());
-                            addNewTransactionIfNeeded(outOfOrderTx.getKey());
-                        }
-                    }
-                }
+        addWalletTransaction(null, tx, true);
+        transactionsApplied++;
+        lastTransactionAppliedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Queues the out of order transactions that only were waiting for the added transaction
+     */
+    private void releaseWaitingTransactions(Sha256Hash addedTx, Queue<BitTransaction> readyTransactions) {
+        checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
+        Set<Sha256Hash> waiting = waitingTransactions.remove(addedTx);
+        if (waiting == null) return;
+
+        for (Sha256Hash waitingTx : waiting) {
+            Map.Entry<BitTransaction, Set<Sha256Hash>> outOfOrderTx = outOfOrderTransactions.get(waitingTx);
+            if (outOfOrderTx == null) continue;
+            Set<Sha256Hash> missingTxs = outOfOrderTx.getValue();
+            missingTxs.remove(addedTx);
+            if (missingTxs.isEmpty()) {
+                outOfOrderTransactions.remove(waitingTx);
+                readyTransactions.add(outOfOrderTx.getKey());
             }
-        } finally {
-            lock.unlock();
         }
     }
 
@@ -1173,6 +1580,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         try {
             addNewTransactionIfNeeded(tx);
             tryToApplyState();
+            publishSnapshot();
         } finally {
             lock.unlock();
         }
@@ -1201,6 +1609,9 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         try {
             this.blockchainConnection = (BitBlockchainConnection) blockchainConnection;
             clearTransientState();
+            connectedAt = System.currentTimeMillis();
+            lastTransactionAppliedAt = connectedAt;
+            transactionsApplied = 0;
             subscribeToBlockchain();
             subscribeToAddressesIfNeeded();
             queueOnConnectivity();
@@ -1235,6 +1646,16 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         }
     }
 
+    /**
+     * Marks all the addresses as used, accounts that look ahead for new addresses override it to
+     * do it once for all of them
+     */
+    protected void markAddressesAsUsed(List<AbstractAddress> addresses) {
+        for (AbstractAddress address : addresses) {
+            markAddressAsUsed(address);
+        }
+    }
+
     void subscribeToAddressesIfNeeded() {
         lock.lock();
         try {
@@ -1260,6 +1681,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         statusPendingUpdates.clear();
         fetchingTransactions.clear();
         outOfOrderTransactions.clear();
+        waitingTransactions.clear();
         lastBalance = type.value(0);
     }
 
@@ -1269,7 +1691,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
     void addUnspentOutput(OutPointOutput utxo) {
         lock.lock();
         try {
-            unspentOutputs.put(utxo.getOutPoint(), utxo);
+            putUnspentOutput(utxo);
         } finally {
             lock.unlock();
         }
@@ -1285,6 +1707,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
                     fetchTimestamp(tx, tx.getAppearedAtChainHeight());
                 }
             }
+            publishSnapshot();
         } finally {
             lock.unlock();
         }
@@ -1295,6 +1718,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         try {
             switch (pool) {
                 case CONFIRMED:
+                    updateBlockDepth(confirmed.values());
                     return Maps.newHashMap(confirmed);
                 case PENDING:
                     return Maps.newHashMap(pending);
@@ -1313,6 +1737,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
             switch (pool) {
                 case UNSPENT:
                 case SPENT:
+                    updateBlockDepth(confirmed.values());
                     return toRawTransactions(confirmed);
                 case PENDING:
                     return toRawTransactions(pending);
@@ -1342,29 +1767,13 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         if (balance.compareTo(lastBalance) != 0) {
             lastBalance = balance;
             log.info("New balance {}", balance);
-            for (final ListenerRegistration<WalletAccountEventListener> registration : listeners) {
-                registration.executor.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        registration.listener.onNewBalance(balance);
-                        registration.listener.onWalletChanged(TransactionWatcherWallet.this);
-                    }
-                });
-            }
+            eventNotifier.notifyNewBalance(balance);
         }
     }
 
     void queueOnNewBlock() {
         checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
-        for (final ListenerRegistration<WalletAccountEventListener> registration : listeners) {
-            registration.executor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    registration.listener.onNewBlock(TransactionWatcherWallet.this);
-                    registration.listener.onWalletChanged(TransactionWatcherWallet.this);
-                }
-            });
-        }
+        eventNotifier.notifyNewBlock();
     }
 
     void queueOnConnectivity() {
@@ -1372,15 +1781,7 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         final WalletConnectivityStatus newConnectivity = getConnectivityStatus();
         if (newConnectivity != lastConnectivity) {
             lastConnectivity = newConnectivity;
-            for (final ListenerRegistration<WalletAccountEventListener> registration : listeners) {
-                registration.executor.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        registration.listener.onConnectivityStatus(newConnectivity);
-                        registration.listener.onWalletChanged(TransactionWatcherWallet.this);
-                    }
-                });
-            }
+            eventNotifier.notifyConnectivity(newConnectivity);
         }
     }
 
@@ -1430,6 +1831,19 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         }
     }
 
+    @Override
+    public SyncStats getSyncStats() {
+        lock.lock();
+        try {
+            return new SyncStats(addressesPendingSubscription.size(), statusPendingUpdates.size(),
+                    fetchingTransactions.size(), outOfOrderTransactions.size(),
+                    transactionsApplied, lastTransactionAppliedAt - connectedAt,
+                    blockchainConnection != null ? blockchainConnection.getConnectionStats() : null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public void broadcastTx(AbstractTransaction tx) throws TransactionBroadcastException {
         if (tx instanceof BitTransaction) {
@@ -1515,7 +1929,8 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         lock.lock();
         try {
             // The confirmed UTXO set
-            Map<TrimmedOutPoint, OutPointOutput> utxoSet = Maps.newHashMap(unspentOutputs);
+            unspentOutputs.updateBlockDepth(lastBlockSeenHeight);
+            Map<TrimmedOutPoint, OutPointOutput> utxoSet = unspentOutputs.toMap();
             Set<TrimmedOutPoint> spentTxo = new HashSet<>();
             Set<TrimmedOutPoint> txSpendingTxo = new HashSet<>();
 
@@ -1563,51 +1978,92 @@ abstract public class TransactionWatcherWallet extends AbstractWallet<BitTransac
         }
     }
 
-    @Nullable
-    public BitTransaction getTransaction(Sha256Hash txId) {
+    private static class SpendCandidates {
+        // The values version and the block height that the outputs were found for
+        final long valuesVersion;
+        final int height;
+        final boolean includeUnsafe;
+        final boolean includeImmature;
+        final List<OutPointOutput> outputs;
+
+        SpendCandidates(long valuesVersion, int height, boolean includeUnsafe,
+                        boolean includeImmature, List<OutPointOutput> outputs) {
+            this.valuesVersion = valuesVersion;
+            this.height = height;
+            this.includeUnsafe = includeUnsafe;
+            this.includeImmature = includeImmature;
+            this.outputs = outputs;
+        }
+    }
+
+    /**
+     * Get the outputs that can be spent, sorted like in {@link WalletCoinSelector}. They are only
+     * found and sorted again after the transactions, the unspent outputs or the block height
+     * change, so creating many send requests in a row does not walk the unspent outputs each
+     * time. The returned list can not be modified.
+     */
+    List<OutPointOutput> getSpendCandidates(boolean includeUnsafe, boolean includeImmature) {
         lock.lock();
         try {
-            return rawTransactions.get(txId);
+            SpendCandidates candidates = spendCandidates;
+            if (candidates == null || candidates.valuesVersion != valuesVersion ||
+                    candidates.height != lastBlockSeenHeight ||
+                    candidates.includeUnsafe != includeUnsafe ||
+                    candidates.includeImmature != includeImmature) {
+                ArrayList<OutPointOutput> outputs = new ArrayList<>();
+                for (OutPointOutput utxo : getUnspentOutputs(includeUnsafe).values()) {
+                    if (!includeImmature && !utxo.isMature()) continue;
+                    outputs.add(utxo);
+                }
+                WalletCoinSelector.sortOutputs(outputs);
+                candidates = new SpendCandidates(valuesVersion, lastBlockSeenHeight, includeUnsafe,
+                        includeImmature, Collections.unmodifiableList(outputs));
+                spendCandidates = candidates;
+            }
+            return candidates.outputs;
         } finally {
             lock.unlock();
         }
     }
 
     @Nullable
-    @Override
-    public BitTransaction getTransaction(String transactionId) {
+    public BitTransaction getTransaction(Sha256Hash txId) {
         lock.lock();
         try {
-            return rawTransactions.get(new Sha256Hash(transactionId));
+            BitTransaction tx = rawTransactions.get(txId);
+            if (tx != null) maybeUpdateBlockDepth(tx, false);
+            return tx;
         } finally {
             lock.unlock();
         }
     }
 
+    @Nullable
     @Override
-    public Map<Sha256Hash, BitTransaction> getTransactions() {
+    public BitTransaction getTransaction(String transactionId) {
         lock.lock();
         try {
-            return ImmutableMap.copyOf(rawTransactions);
+            return getTransaction(new Sha256Hash(transactionId));
         } finally {
             lock.unlock();
         }
     }
 
+    @Override
+    public Map<Sha256Hash, BitTransaction> getTransactions() {
+        return getSnapshot().transactions;
+    }
+
     @Override
     public Map<Sha256Hash, BitTransaction> getPendingTransactions() {
-        lock.lock();
-        try {
-            return ImmutableMap.copyOf(pending);
-        } finally {
-            lock.unlock();
-        }
+        return getSnapshot().pending;
     }
 
     public OutPointOutput getUnspentTxOutput(TransactionOutPoint outPoint) {
         lock.lock();
         try {
-            return unspentOutputs.get(TrimmedOutPoint.get(outPoint));
+            unspentOutputs.updateBlockDepth(outPoint, lastBlockSeenHeight);
+            return unspentOutputs.get(outPoint);
         } finally {
             lock.unlock();
         }
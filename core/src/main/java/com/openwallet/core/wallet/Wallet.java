@@ -144,14 +144,17 @@ final public class Wallet {
         lock.lock();
         try {
             ImmutableList.Builder<WalletAccount> newAccounts = ImmutableList.builder();
+            // The lookahead keys of all the new accounts are derived together
+            BatchKeyDerivation batch = new BatchKeyDerivation();
             for (CoinType coin : coins) {
                 log.info("Creating coin pocket for {}", coin);
                 WalletAccount newAccount = createAndAddAccount(coin, key);
                 if (generateAllKeys) {
-                    newAccount.maybeInitializeAllKeys();
+                    maybeInitializeAllKeys(newAccount, batch);
                 }
                 newAccounts.add(newAccount);
             }
+            batch.derive();
             return newAccounts.build();
         } finally {
             lock.unlock();
@@ -262,6 +265,18 @@ final public class Wallet {
         }
     }
 
+    /**
+     * Add the lookahead keys of the account to the batch, the accounts that are not HD initialize
+     * their keys right away
+     */
+    private static void maybeInitializeAllKeys(WalletAccount account, BatchKeyDerivation batch) {
+        if (account instanceof WalletPocketHD) {
+            ((WalletPocketHD) account).maybeInitializeAllKeys(batch);
+        } else {
+            account.maybeInitializeAllKeys();
+        }
+    }
+
     /**
      * Generate and add a new BIP44 account for a specific coin type
      */
@@ -373,11 +388,13 @@ final public class Wallet {
     public void maybeInitializeAllPockets() {
         lock.lock();
         try {
+            BatchKeyDerivation batch = new BatchKeyDerivation();
             for (WalletAccount account : accounts.values()) {
                 if (account instanceof WalletPocketHD) {
-                    account.maybeInitializeAllKeys();
+                    maybeInitializeAllKeys(account, batch);
                 }
             }
+            batch.derive();
         } finally {
             lock.unlock();
         }
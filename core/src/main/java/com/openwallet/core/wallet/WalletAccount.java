@@ -50,6 +50,12 @@ public interface WalletAccount<T extends AbstractTransaction, A extends Abstract
 
     boolean isConnected();
     boolean isLoading();
+
+    /**
+     * Get the progress and the throughput of the synchronization with the server
+     */
+    SyncStats getSyncStats();
+
     void disconnect();
     WalletConnectivityStatus getConnectivityStatus();
 
@@ -0,0 +1,120 @@
+package com.openwallet.core.wallet;
+
+import com.openwallet.core.coins.Value;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.bitcoinj.utils.ListenerRegistration;
+import org.bitcoinj.utils.Threading;
+
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Delivers the balance, block and connectivity events of an account to its listeners.
+ *
+ * Events that happen close together are coalesced: the first event schedules a delivery after
+ * a short interval, and the events that arrive until then only update the state to deliver. Each
+ * listener gets the latest state once, followed by a single onWalletChanged. This avoids flooding
+ * the listener executors with thousands of events when restoring a wallet.
+ *
+ * @author John L. Jegutanis
+ */
+public class WalletAccountEventNotifier {
+    // About one frame of the UI
+    @VisibleForTesting static final long DEFAULT_INTERVAL_MS = 16;
+
+    private static final ScheduledThreadPoolExecutor scheduler;
+
+    static {
+        ThreadFactoryBuilder builder = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Wallet events thread");
+        Thread.UncaughtExceptionHandler handler = Threading.uncaughtExceptionHandler;
+        if (handler != null) builder.setUncaughtExceptionHandler(handler);
+        scheduler = new ScheduledThreadPoolExecutor(1, builder.build());
+    }
+
+    private final WalletAccount account;
+    private final List<ListenerRegistration<WalletAccountEventListener>> listeners;
+    private final long intervalMs;
+
+    // The state that is waiting to be delivered, guarded by this
+    @Nullable private Value newBalance;
+    private boolean newBlock;
+    @Nullable private WalletConnectivityStatus newConnectivity;
+    private boolean deliveryScheduled;
+
+    private final Runnable deliverTask = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    public WalletAccountEventNotifier(WalletAccount account,
+                                      List<ListenerRegistration<WalletAccountEventListener>> listeners) {
+        this(account, listeners, DEFAULT_INTERVAL_MS);
+    }
+
+    @VisibleForTesting
+    WalletAccountEventNotifier(WalletAccount account,
+                               List<ListenerRegistration<WalletAccountEventListener>> listeners,
+                               long intervalMs) {
+        this.account = account;
+        this.listeners = listeners;
+        this.intervalMs = intervalMs;
+    }
+
+    public synchronized void notifyNewBalance(Value balance) {
+        newBalance = balance;
+        scheduleDelivery();
+    }
+
+    public synchronized void notifyNewBlock() {
+        newBlock = true;
+        scheduleDelivery();
+    }
+
+    public synchronized void notifyConnectivity(WalletConnectivityStatus connectivity) {
+        newConnectivity = connectivity;
+        scheduleDelivery();
+    }
+
+    private void scheduleDelivery() {
+        if (!deliveryScheduled) {
+            deliveryScheduled = true;
+            scheduler.schedule(deliverTask, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void deliver() {
+        final Value balance;
+        final boolean block;
+        final WalletConnectivityStatus connectivity;
+        synchronized (this) {
+            balance = newBalance;
+            block = newBlock;
+            connectivity = newConnectivity;
+            newBalance = null;
+            newBlock = false;
+            newConnectivity = null;
+            deliveryScheduled = false;
+        }
+
+        for (final ListenerRegistration<WalletAccountEventListener> registration : listeners) {
+            registration.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (balance != null) registration.listener.onNewBalance(balance);
+                    if (block) registration.listener.onNewBlock(account);
+                    if (connectivity != null) registration.listener.onConnectivityStatus(connectivity);
+                    registration.listener.onWalletChanged(account);
+                }
+            });
+        }
+    }
+}
@@ -3,7 +3,6 @@ package com.openwallet.core.wallet;
 import com.openwallet.core.wallet.families.bitcoin.CoinSelection;
 import com.openwallet.core.wallet.families.bitcoin.CoinSelector;
 import com.openwallet.core.wallet.families.bitcoin.OutPointOutput;
-import com.google.common.annotations.VisibleForTesting;
 
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.NetworkParameters;
@@ -29,16 +28,23 @@ import java.util.List;
 public class WalletCoinSelector implements CoinSelector {
 
     public CoinSelection select(Coin biTarget, List<OutPointOutput> candidates) {
-        long target = biTarget.value;
-        HashSet<OutPointOutput> selected = new HashSet<>();
         // Sort the inputs by age*value so we get the highest "coindays" spent.
-        // TODO: Consider changing the wallets internal format to track just outputs and keep them ordered.
         ArrayList<OutPointOutput> sortedOutputs = new ArrayList<>(candidates);
         // When calculating the wallet balance, we may be asked to select all possible coins, if so, avoid sorting
         // them in order to improve performance.
         if (!biTarget.equals(NetworkParameters.MAX_MONEY)) {
             sortOutputs(sortedOutputs);
         }
+        return selectSorted(biTarget, sortedOutputs);
+    }
+
+    /**
+     * Like {@link #select(Coin, List)} but the candidates are already sorted with {@link #sortOutputs(ArrayList)},
+     * so only the selected outputs are visited. The candidates are not modified.
+     */
+    public CoinSelection selectSorted(Coin biTarget, List<OutPointOutput> sortedOutputs) {
+        long target = biTarget.value;
+        HashSet<OutPointOutput> selected = new HashSet<>();
         // Now iterate over the sorted outputs until we have got as close to the target as possible or a little
         // bit over (excessive value will be change).
         long total = 0;
@@ -54,7 +60,6 @@ public class WalletCoinSelector implements CoinSelector {
         return new CoinSelection(Coin.valueOf(total), selected);
     }
 
-    @VisibleForTesting
     static void sortOutputs(ArrayList<OutPointOutput> outputs) {
         Collections.sort(outputs, new Comparator<OutPointOutput>() {
 
@@ -496,6 +496,19 @@ public class WalletPocketHD extends BitWalletBase {
         }
     }
 
+    /**
+     * Like {@link #maybeInitializeAllKeys()} but the keys are derived with the batch, together
+     * with the keys of the other accounts
+     */
+    void maybeInitializeAllKeys(BatchKeyDerivation batch) {
+        lock.lock();
+        try {
+            keys.maybeLookAhead(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public String getPublicKeyMnemonic() {
         throw new RuntimeException("Not implemented");
@@ -530,6 +543,21 @@ public class WalletPocketHD extends BitWalletBase {
         keys.markPubHashAsUsed(address.getHash160());
     }
 
+    @Override
+    protected void markAddressesAsUsed(List<AbstractAddress> addresses) {
+        List<byte[]> pubkeyHashes = new ArrayList<>(addresses.size());
+        for (AbstractAddress address : addresses) {
+            checkArgument(address.getType().equals(type), "Wrong address type");
+            if (address instanceof BitAddress) {
+                pubkeyHashes.add(((BitAddress) address).getHash160());
+            } else {
+                throw new IllegalArgumentException("Wrong address class");
+            }
+        }
+        // Marks them at once so that the lookahead zone can grow while restoring
+        keys.markPubHashesAsUsed(pubkeyHashes);
+    }
+
     @Override
     public String toString() {
         return WalletPocketHD.class.getSimpleName() + " " + id.substring(0, 4)+ " " + type;
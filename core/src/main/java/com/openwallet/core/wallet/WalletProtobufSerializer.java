@@ -360,7 +360,7 @@ public class WalletProtobufSerializer {
                                 utxo.setAppearedAtChainHeight(tx.getAppearedAtChainHeight());
                                 utxo.setDepthInBlocks(tx.getDepthInBlocks());
                             }
-                            account.unspentOutputs.put(utxo.getOutPoint(), utxo);
+                            account.addUnspentOutput(utxo);
                         }
                     }
                 }
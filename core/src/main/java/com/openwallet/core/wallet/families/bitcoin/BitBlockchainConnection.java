@@ -1,11 +1,27 @@
 package com.openwallet.core.wallet.families.bitcoin;
 
 import com.openwallet.core.network.AddressStatus;
+import com.openwallet.core.network.ConnectionStats;
 import com.openwallet.core.network.interfaces.BlockchainConnection;
+import com.openwallet.core.network.interfaces.TransactionEventListener;
+
+import org.bitcoinj.core.Sha256Hash;
+
+import java.util.List;
 
 /**
  * @author John L. Jegutanis
  */
 public interface BitBlockchainConnection extends BlockchainConnection<BitTransaction> {
     void getUnspentTx(AddressStatus status, BitTransactionEventListener listener);
+
+    /**
+     * Get several transactions at once, the requests are pipelined to the server
+     */
+    void getTransactions(List<Sha256Hash> txHashes, TransactionEventListener<BitTransaction> listener);
+
+    /**
+     * Get the traffic and the call latencies of this connection so far
+     */
+    ConnectionStats getConnectionStats();
 }
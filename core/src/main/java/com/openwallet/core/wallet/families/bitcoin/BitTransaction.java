@@ -23,7 +23,6 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -45,6 +44,28 @@ public final class BitTransaction implements AbstractTransaction {
     final Value valueReceived;
     final Value value;
     @Nullable final Value fee;
+    // The values of a full transaction for the wallet values version they were computed in
+    @Nullable private volatile Summary summary;
+
+    /**
+     * The values that a full transaction moves in and out of a wallet. They are kept until the
+     * wallet transactions or unspent outputs change, so that showing the transaction does not go
+     * through its inputs and outputs every time.
+     */
+    private static final class Summary {
+        final TransactionWatcherWallet wallet;
+        final long walletVersion;
+        final Value valueSent;
+        final Value valueReceived;
+
+        Summary(TransactionWatcherWallet wallet, long walletVersion, Value valueSent,
+                Value valueReceived) {
+            this.wallet = wallet;
+            this.walletVersion = walletVersion;
+            this.valueSent = valueSent;
+            this.valueReceived = valueReceived;
+        }
+    }
 
     public BitTransaction(Sha256Hash transactionId, Transaction transaction, boolean isTrimmed,
                           Value valueSent, Value valueReceived, @Nullable Value fee) {
@@ -152,7 +173,7 @@ public final class BitTransaction implements AbstractTransaction {
         if (isTrimmed) {
             return getValueReceived();
         } else {
-            return type.value(tx.getValueSentToMe(wallet));
+            return getSummary(wallet).valueReceived;
         }
     }
 
@@ -160,36 +181,51 @@ public final class BitTransaction implements AbstractTransaction {
         if (isTrimmed) {
             return getValueSent();
         } else {
-            tx.ensureParsed();
-            // Find the value of the inputs that draw value from the wallet
-            Value sent = type.value(0);
-            Map<Sha256Hash, BitTransaction> transactions = wallet.getTransactions();
-            for (TransactionInput input : tx.getInputs()) {
-                TransactionOutPoint outPoint = input.getOutpoint();
-                // This input is taking value from a transaction in our wallet. To discover the value,
-                // we must find the connected transaction.
-                OutPointOutput connected = wallet.getUnspentTxOutput(outPoint);
-                if (connected == null) {
-                    BitTransaction spendingTx = transactions.get(outPoint.getHash());
-                    int index = (int) outPoint.getIndex();
-                    if (spendingTx != null && spendingTx.isOutputAvailable(index)) {
-                        connected = new OutPointOutput(spendingTx, index);
-                    }
-                }
-
-                if (connected == null)
-                    continue;
+            return getSummary(wallet).valueSent;
+        }
+    }
 
-                // The connected output may be the change to the sender of a previous input sent to this wallet. In this
-                // case we ignore it.
-                if (!connected.getOutput().isMineOrWatched(wallet))
-                    continue;
+    private Summary getSummary(TransactionWatcherWallet wallet) {
+        // Read the version first, if the wallet changes while computing the values are computed
+        // again on the next call
+        long walletVersion = wallet.getValuesVersion();
+        Summary current = summary;
+        if (current == null || current.wallet != wallet || current.walletVersion != walletVersion) {
+            current = new Summary(wallet, walletVersion, computeValueSent(wallet),
+                    type.value(tx.getValueSentToMe(wallet)));
+            summary = current;
+        }
+        return current;
+    }
 
-                sent = sent.add(connected.getValue());
+    private Value computeValueSent(TransactionWatcherWallet wallet) {
+        // Find the value of the inputs that draw value from the wallet
+        Value sent = type.value(0);
+        for (TransactionInput input : tx.getInputs()) {
+            TransactionOutPoint outPoint = input.getOutpoint();
+            // This input is taking value from a transaction in our wallet. To discover the value,
+            // we must find the connected transaction.
+            OutPointOutput connected = wallet.getUnspentTxOutput(outPoint);
+            if (connected == null) {
+                BitTransaction spendingTx = wallet.getTransaction(outPoint.getHash());
+                int index = (int) outPoint.getIndex();
+                if (spendingTx != null && spendingTx.isOutputAvailable(index)) {
+                    connected = new OutPointOutput(spendingTx, index);
+                }
             }
 
-            return sent;
+            if (connected == null)
+                continue;
+
+            // The connected output may be the change to the sender of a previous input sent to this wallet. In this
+            // case we ignore it.
+            if (!connected.getOutput().isMineOrWatched(wallet))
+                continue;
+
+            sent = sent.add(connected.getValue());
         }
+
+        return sent;
     }
 
     public Value getValueReceived() {
@@ -0,0 +1,435 @@
+package com.openwallet.core.wallet.families.bitcoin;
+
+import com.openwallet.core.coins.CoinType;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A set of unspent outputs stored in parallel arrays of primitives instead of object graphs.
+ *
+ * Each output takes a row with its transaction hash, index, value, chain height, depth and a
+ * reference to its script. The scripts are stored once and shared by all the outputs that pay to
+ * them, as most outputs of a wallet pay to the same few addresses. Each script has a stable id
+ * and keeps the list of its rows, so the outputs of an address are found without scanning. The
+ * rows are found by their out point with an open addressing table.
+ *
+ * The OutPointOutput objects are only created when an output is read and are kept until its row
+ * changes, including its depth, so reading all the outputs again does not create them again. The
+ * table never modifies an output it returned, so they can be shared by all the readers and used
+ * without the lock. The readers must not modify them either.
+ *
+ * Removing an output moves the last row into its place, so the rows are always packed.
+ *
+ * Not thread safe, the wallet accesses it with its lock held.
+ *
+ * @author John L. Jegutanis
+ */
+public class UnspentOutputTable {
+    private static final int HASH_SIZE = 32;
+    private static final int MIN_CAPACITY = 16;
+
+    private final CoinType type;
+
+    // The rows
+    private int size = 0;
+    private byte[] hashes;
+    private int[] indexes;
+    private long[] values;
+    private int[] heights;
+    private int[] depths;
+    private boolean[] generated;
+    private int[] scriptRefs;
+    // The position of the row in the row list of its script
+    private int[] scriptRowPositions;
+    // The outputs already read, null until a row is read or after it changes
+    private OutPointOutput[] outputs;
+
+    // Open addressing table of row + 1, a zero is an empty slot
+    private int[] slots;
+
+    // The scripts of the outputs by id, the rows that use them and their id by content. The ids
+    // are never reused, so they can be kept by the wallet until the table is cleared.
+    private final ArrayList<byte[]> scripts = new ArrayList<>();
+    private int[][] scriptRows = new int[MIN_CAPACITY][];
+    private int[] scriptUsers = new int[MIN_CAPACITY];
+    private final HashMap<ByteBuffer, Integer> scriptIds = new HashMap<>();
+
+    public UnspentOutputTable(CoinType type) {
+        this.type = type;
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        hashes = new byte[capacity * HASH_SIZE];
+        indexes = new int[capacity];
+        values = new long[capacity];
+        heights = new int[capacity];
+        depths = new int[capacity];
+        generated = new boolean[capacity];
+        scriptRefs = new int[capacity];
+        scriptRowPositions = new int[capacity];
+        outputs = new OutPointOutput[capacity];
+        slots = new int[capacity * 2];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(TransactionOutPoint outPoint) {
+        return findRow(outPoint.getHash().getBytes(), (int) outPoint.getIndex()) >= 0;
+    }
+
+    @Nullable
+    public OutPointOutput get(TransactionOutPoint outPoint) {
+        int row = findRow(outPoint.getHash().getBytes(), (int) outPoint.getIndex());
+        return row >= 0 ? materialize(row) : null;
+    }
+
+    /**
+     * Adds the output or replaces the one with the same out point, returns the replaced output
+     */
+    @Nullable
+    public OutPointOutput put(OutPointOutput utxo) {
+        byte[] hash = utxo.getTxHash().getBytes();
+        int index = (int) utxo.getIndex();
+        int row = findRow(hash, index);
+        OutPointOutput previous = null;
+        if (row >= 0) {
+            previous = materialize(row);
+            releaseScript(scriptRefs[row], row);
+            outputs[row] = null;
+        } else {
+            if (size == indexes.length) grow();
+            row = size++;
+            System.arraycopy(hash, 0, hashes, row * HASH_SIZE, HASH_SIZE);
+            indexes[row] = index;
+            insertSlot(row);
+        }
+        values[row] = utxo.getValueLong();
+        heights[row] = utxo.getAppearedAtChainHeight();
+        depths[row] = utxo.getDepthInBlocks();
+        generated[row] = utxo.isGenerated();
+        scriptRefs[row] = acquireScript(utxo.getScriptBytes(), row);
+        return previous;
+    }
+
+    /**
+     * Removes the output and returns it or null if it was not present
+     */
+    @Nullable
+    public OutPointOutput remove(TransactionOutPoint outPoint) {
+        int row = findRow(outPoint.getHash().getBytes(), (int) outPoint.getIndex());
+        if (row < 0) return null;
+        OutPointOutput removed = materialize(row);
+        deleteRow(row);
+        return removed;
+    }
+
+    private void deleteRow(int row) {
+        deleteSlot(row);
+        releaseScript(scriptRefs[row], row);
+        int last = --size;
+        if (row != last) {
+            // Move the last row in the place of the removed one
+            slots[findSlot(last)] = row + 1;
+            scriptRows[scriptRefs[last]][scriptRowPositions[last]] = row;
+            scriptRowPositions[row] = scriptRowPositions[last];
+            outputs[row] = outputs[last];
+            System.arraycopy(hashes, last * HASH_SIZE, hashes, row * HASH_SIZE, HASH_SIZE);
+            indexes[row] = indexes[last];
+            values[row] = values[last];
+            heights[row] = heights[last];
+            depths[row] = depths[last];
+            generated[row] = generated[last];
+            scriptRefs[row] = scriptRefs[last];
+        }
+        outputs[last] = null;
+    }
+
+    /**
+     * Get the id of the script or -1 if no output ever paid to it
+     */
+    public int getScriptId(byte[] script) {
+        Integer id = scriptIds.get(ByteBuffer.wrap(script));
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Get the id of the script of the output or -1 if it is not present
+     */
+    public int getScriptId(TransactionOutPoint outPoint) {
+        int row = findRow(outPoint.getHash().getBytes(), (int) outPoint.getIndex());
+        return row >= 0 ? scriptRefs[row] : -1;
+    }
+
+    public byte[] getScript(int scriptId) {
+        return scripts.get(scriptId);
+    }
+
+    /**
+     * Get the number of outputs that pay to the script
+     */
+    public int getScriptOutputCount(int scriptId) {
+        return scriptUsers[scriptId];
+    }
+
+    /**
+     * Get the row of the output or -1 if it is not present. The row of an output only changes
+     * when an output is removed.
+     */
+    public int getRow(TransactionOutPoint outPoint) {
+        return findRow(outPoint.getHash().getBytes(), (int) outPoint.getIndex());
+    }
+
+    /**
+     * Removes the outputs that pay to the script except the ones in the rows to keep. Returns the
+     * total value of the removed outputs.
+     */
+    public long retainScriptOutputs(int scriptId, int[] keepRows, int keepCount) {
+        int[] sortedKeep = Arrays.copyOf(keepRows, keepCount);
+        Arrays.sort(sortedKeep);
+        int[] rows = scriptRows[scriptId];
+        int[] toRemove = new int[scriptUsers[scriptId]];
+        int removeCount = 0;
+        for (int i = 0; i < scriptUsers[scriptId]; i++) {
+            if (Arrays.binarySearch(sortedKeep, rows[i]) < 0) toRemove[removeCount++] = rows[i];
+        }
+        // From the last row, so that a row that moves into a hole was not to be removed
+        Arrays.sort(toRemove, 0, removeCount);
+        long removedValue = 0;
+        for (int i = removeCount - 1; i >= 0; i--) {
+            removedValue += values[toRemove[i]];
+            deleteRow(toRemove[i]);
+        }
+        return removedValue;
+    }
+
+    public void clear() {
+        size = 0;
+        allocate(MIN_CAPACITY);
+        scripts.clear();
+        scriptRows = new int[MIN_CAPACITY][];
+        scriptUsers = new int[MIN_CAPACITY];
+        scriptIds.clear();
+    }
+
+    /**
+     * Sets the height of the block of the output and a depth of one block, like
+     * {@link OutPointOutput#setAppearedAtChainHeight(int)}. Does nothing if it is not present.
+     */
+    public void setAppearedAtChainHeight(TransactionOutPoint outPoint, int height) {
+        if (height < 0) throw new IllegalArgumentException("appearedAtChainHeight out of range");
+        int row = findRow(outPoint.getHash().getBytes(), (int) outPoint.getIndex());
+        if (row >= 0) {
+            heights[row] = height;
+            depths[row] = 1;
+            outputs[row] = null;
+        }
+    }
+
+    /**
+     * Sets the depth of the output, does nothing if it is not present
+     */
+    public void setDepthInBlocks(TransactionOutPoint outPoint, int depth) {
+        int row = findRow(outPoint.getHash().getBytes(), (int) outPoint.getIndex());
+        if (row >= 0) setDepth(row, depth);
+    }
+
+    /**
+     * Updates the depth of the confirmed outputs to the height of the best block
+     */
+    public void updateBlockDepth(int bestHeight) {
+        for (int row = 0; row < size; row++) {
+            updateBlockDepth(row, bestHeight);
+        }
+    }
+
+    /**
+     * Updates the depth of the output to the height of the best block, does nothing if it is not
+     * present
+     */
+    public void updateBlockDepth(TransactionOutPoint outPoint, int bestHeight) {
+        int row = findRow(outPoint.getHash().getBytes(), (int) outPoint.getIndex());
+        if (row >= 0) updateBlockDepth(row, bestHeight);
+    }
+
+    private void updateBlockDepth(int row, int bestHeight) {
+        if (heights[row] < 0) return;
+        int newDepth = bestHeight - heights[row] + 1;
+        if (newDepth > 1 && newDepth != depths[row]) setDepth(row, newDepth);
+    }
+
+    private void setDepth(int row, int depth) {
+        depths[row] = depth;
+        // The output already read may be held by a reader, it is created again on the next read
+        outputs[row] = null;
+    }
+
+    /**
+     * Get the outputs, the objects are shared with the other readers and must not be modified
+     */
+    public List<OutPointOutput> values() {
+        List<OutPointOutput> utxos = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            utxos.add(materialize(row));
+        }
+        return utxos;
+    }
+
+    /**
+     * Get the outputs by out point, the objects are shared like in {@link #values()}
+     */
+    public Map<TrimmedOutPoint, OutPointOutput> toMap() {
+        Map<TrimmedOutPoint, OutPointOutput> utxos = new HashMap<>(size * 2);
+        for (int row = 0; row < size; row++) {
+            OutPointOutput utxo = materialize(row);
+            utxos.put(utxo.getOutPoint(), utxo);
+        }
+        return utxos;
+    }
+
+    private OutPointOutput materialize(int row) {
+        OutPointOutput utxo = outputs[row];
+        if (utxo == null) {
+            utxo = createOutput(row);
+            outputs[row] = utxo;
+        }
+        return utxo;
+    }
+
+    private OutPointOutput createOutput(int row) {
+        Sha256Hash txHash = new Sha256Hash(
+                Arrays.copyOfRange(hashes, row * HASH_SIZE, (row + 1) * HASH_SIZE));
+        TrimmedOutput output = new TrimmedOutput(type, values[row], txHash, indexes[row],
+                scripts.get(scriptRefs[row]));
+        OutPointOutput utxo = new OutPointOutput(output, generated[row]);
+        if (heights[row] >= 0) utxo.setAppearedAtChainHeight(heights[row]);
+        utxo.setDepthInBlocks(depths[row]);
+        return utxo;
+    }
+
+    private void grow() {
+        int capacity = indexes.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity * HASH_SIZE);
+        indexes = Arrays.copyOf(indexes, capacity);
+        values = Arrays.copyOf(values, capacity);
+        heights = Arrays.copyOf(heights, capacity);
+        depths = Arrays.copyOf(depths, capacity);
+        generated = Arrays.copyOf(generated, capacity);
+        scriptRefs = Arrays.copyOf(scriptRefs, capacity);
+        scriptRowPositions = Arrays.copyOf(scriptRowPositions, capacity);
+        outputs = Arrays.copyOf(outputs, capacity);
+        slots = new int[capacity * 2];
+        for (int row = 0; row < size; row++) {
+            insertSlot(row);
+        }
+    }
+
+    // Hash table of the rows
+
+    private int hash(byte[] hash, int hashOffset, int index) {
+        // The transaction hashes are already random, mix in the index for outputs of the same tx
+        int h = (hash[hashOffset] & 0xFF) | (hash[hashOffset + 1] & 0xFF) << 8 |
+                (hash[hashOffset + 2] & 0xFF) << 16 | (hash[hashOffset + 3] & 0xFF) << 24;
+        h ^= index * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean rowEquals(int row, byte[] hash, int index) {
+        if (indexes[row] != index) return false;
+        int offset = row * HASH_SIZE;
+        for (int i = 0; i < HASH_SIZE; i++) {
+            if (hashes[offset + i] != hash[i]) return false;
+        }
+        return true;
+    }
+
+    private int findRow(byte[] hash, int index) {
+        int mask = slots.length - 1;
+        for (int slot = hash(hash, 0, index) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int row = slots[slot] - 1;
+            if (rowEquals(row, hash, index)) return row;
+        }
+        return -1;
+    }
+
+    private int homeSlot(int row) {
+        return hash(hashes, row * HASH_SIZE, indexes[row]) & (slots.length - 1);
+    }
+
+    private void insertSlot(int row) {
+        int mask = slots.length - 1;
+        int slot = homeSlot(row);
+        while (slots[slot] != 0) slot = (slot + 1) & mask;
+        slots[slot] = row + 1;
+    }
+
+    private int findSlot(int row) {
+        int mask = slots.length - 1;
+        int slot = homeSlot(row);
+        while (slots[slot] != row + 1) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void deleteSlot(int row) {
+        int mask = slots.length - 1;
+        int hole = findSlot(row);
+        // Shift back the following entries that would not be found with the hole in their way
+        for (int slot = (hole + 1) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int home = homeSlot(slots[slot] - 1);
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                slots[hole] = slots[slot];
+                hole = slot;
+            }
+        }
+        slots[hole] = 0;
+    }
+
+    // Shared scripts
+
+    private int acquireScript(byte[] script, int row) {
+        ByteBuffer key = ByteBuffer.wrap(script);
+        Integer id = scriptIds.get(key);
+        if (id == null) {
+            id = scripts.size();
+            scripts.add(script);
+            if (id == scriptUsers.length) {
+                scriptUsers = Arrays.copyOf(scriptUsers, id * 2);
+                scriptRows = Arrays.copyOf(scriptRows, id * 2);
+            }
+            scriptRows[id] = new int[4];
+            scriptIds.put(key, id);
+        }
+        int position = scriptUsers[id]++;
+        if (position == scriptRows[id].length) {
+            scriptRows[id] = Arrays.copyOf(scriptRows[id], position * 2);
+        }
+        scriptRows[id][position] = row;
+        scriptRowPositions[row] = position;
+        return id;
+    }
+
+    private void releaseScript(int id, int row) {
+        // Move the last row of the script in the place of the released one
+        int last = --scriptUsers[id];
+        int position = scriptRowPositions[row];
+        int moved = scriptRows[id][last];
+        scriptRows[id][position] = moved;
+        scriptRowPositions[moved] = position;
+    }
+}
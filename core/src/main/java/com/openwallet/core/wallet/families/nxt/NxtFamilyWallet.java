@@ -19,10 +19,11 @@ import com.openwallet.core.wallet.AbstractTransaction;
 import com.openwallet.core.wallet.AbstractWallet;
 import com.openwallet.core.wallet.SendRequest;
 import com.openwallet.core.wallet.SignedMessage;
+import com.openwallet.core.wallet.SyncStats;
 import com.openwallet.core.wallet.Wallet;
 import com.openwallet.core.wallet.WalletAccount;
 import com.openwallet.core.wallet.WalletAccountEventListener;
-import com.openwallet.core.wallet.WalletConnectivityStatus;
+import com.openwallet.core.wallet.WalletAccountEventNotifier;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -78,6 +79,7 @@ public class NxtFamilyWallet extends AbstractWallet<NxtTransaction, NxtAddress>
     private int lastBlockSeenHeight = -1;
     private long lastBlockSeenTimeSecs = 0;
     private List<ListenerRegistration<WalletAccountEventListener>> listeners;
+    private final transient WalletAccountEventNotifier eventNotifier;
 
 
     private Runnable saveLaterRunnable = new Runnable() {
@@ -119,6 +121,7 @@ public class NxtFamilyWallet extends AbstractWallet<NxtTransaction, NxtAddress>
         //fetchingTransactions = new HashSet<>();
         rawtransactions = new HashMap<>();
         listeners = new CopyOnWriteArrayList<>();
+        eventNotifier = new WalletAccountEventNotifier(this, listeners);
     }
 
     @Override
@@ -270,6 +273,17 @@ public class NxtFamilyWallet extends AbstractWallet<NxtTransaction, NxtAddress>
         return false;
     }
 
+    @Override
+    public SyncStats getSyncStats() {
+        lock.lock();
+        try {
+            return new SyncStats(addressesPendingSubscription.size(), statusPendingUpdates.size(),
+                    0, 0, 0, 0, null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public void disconnect() {
         if (blockchainConnection != null) {
@@ -627,14 +641,13 @@ public class NxtFamilyWallet extends AbstractWallet<NxtTransaction, NxtAddress>
 
     void queueOnNewBlock() {
         checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
-        for (final ListenerRegistration<WalletAccountEventListener> registration : listeners) {
-            registration.executor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    registration.listener.onNewBlock(NxtFamilyWallet.this);
-                    registration.listener.onWalletChanged(NxtFamilyWallet.this);
-                }
-            });
+        eventNotifier.notifyNewBlock();
+    }
+
+    @Override
+    public void onAddressStatusesUpdate(List<AddressStatus> statuses) {
+        for (AddressStatus status : statuses) {
+            onAddressStatusUpdate(status);
         }
     }
 
@@ -840,29 +853,11 @@ public class NxtFamilyWallet extends AbstractWallet<NxtTransaction, NxtAddress>
 
     void queueOnNewBalance() {
         checkState(lock.isHeldByCurrentThread(), "Lock is held by another thread");
-        final Value balance = getBalance();
-        for (final ListenerRegistration<WalletAccountEventListener> registration : listeners) {
-            registration.executor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    registration.listener.onNewBalance(balance);
-                    registration.listener.onWalletChanged(NxtFamilyWallet.this);
-                }
-            });
-        }
+        eventNotifier.notifyNewBalance(getBalance());
     }
 
     void queueOnConnectivity() {
-        final WalletConnectivityStatus connectivity = getConnectivityStatus();
-        for (final ListenerRegistration<WalletAccountEventListener> registration : listeners) {
-            registration.executor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    registration.listener.onConnectivityStatus(connectivity);
-                    registration.listener.onWalletChanged(NxtFamilyWallet.this);
-                }
-            });
-        }
+        eventNotifier.notifyConnectivity(getConnectivityStatus());
     }
 
     @Override
@@ -0,0 +1,174 @@
+package com.openwallet.stratumj;
+
+import com.google.common.base.Ticker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A timer optimized for a large number of timeouts that are almost always cancelled, like the
+ * deadlines of the calls made to a server.
+ *
+ * Scheduling and cancelling a timeout is O(1). The timeouts are kept in a circular wheel of
+ * buckets, one per tick, and only the bucket of the current tick is checked when the timer
+ * advances. Timeouts expire with a precision of one tick.
+ *
+ * New timeouts can be scheduled from any thread, but {@link #expireTimeouts()} must always be
+ * called from the same thread, the tasks of the expired timeouts run in that thread.
+ *
+ * @author John L. Jegutanis
+ */
+final class HashedWheelTimer {
+    private static final Logger log = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private final Ticker ticker;
+    private final long startTime;
+    private final long tickDuration;
+    private final ArrayList<Timeout>[] wheel;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingTimeouts = new AtomicInteger();
+    // The last processed tick, only accessed by the expiring thread
+    private long tick = 0;
+
+    final class Timeout {
+        private final Runnable task;
+        // Nanoseconds since the timer was created
+        private final long deadline;
+        private long remainingRounds;
+        private volatile boolean cancelled = false;
+        private boolean expired = false;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels this timeout. It is safe to call this method from any thread and more than once.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        boolean isExpired() {
+            return expired;
+        }
+    }
+
+    HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this(tickDuration, unit, ticksPerWheel, Ticker.systemTicker());
+    }
+
+    HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel, Ticker ticker) {
+        checkArgument(tickDuration > 0, "Tick duration must be positive");
+        checkArgument(ticksPerWheel > 0 && (ticksPerWheel & (ticksPerWheel - 1)) == 0,
+                "Ticks per wheel must be a power of two");
+        this.ticker = checkNotNull(ticker);
+        this.tickDuration = unit.toNanos(tickDuration);
+        this.startTime = ticker.read();
+        wheel = newWheel(ticksPerWheel);
+        mask = ticksPerWheel - 1;
+    }
+
+    private static ArrayList<Timeout>[] newWheel(int ticksPerWheel) {
+        // Arrays of a generic type can only be created raw
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayList<Timeout>[] wheel = new ArrayList[ticksPerWheel];
+        for (int i = 0; i < ticksPerWheel; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        return wheel;
+    }
+
+    /**
+     * Schedules the task to run after the delay. Can be called from any thread.
+     */
+    Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        checkNotNull(task);
+        long deadline = ticker.read() - startTime + unit.toNanos(delay);
+        Timeout timeout = new Timeout(task, deadline);
+        newTimeouts.add(timeout);
+        pendingTimeouts.incrementAndGet();
+        return timeout;
+    }
+
+    /**
+     * Returns the number of timeouts that are neither expired nor removed after being cancelled
+     */
+    int pendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    long getTickDuration(TimeUnit unit) {
+        return unit.convert(tickDuration, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Advances the wheel up to the current time and runs the tasks of the expired timeouts.
+     */
+    void expireTimeouts() {
+        long currentTick = (ticker.read() - startTime) / tickDuration;
+        transferNewTimeouts();
+        while (tick < currentTick) {
+            tick++;
+            expireBucket(wheel[(int) (tick & mask)]);
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.cancelled) {
+                pendingTimeouts.decrementAndGet();
+                continue;
+            }
+            // Round up so that a timeout never expires before its deadline
+            long expireTick = Math.max((timeout.deadline + tickDuration - 1) / tickDuration, tick + 1);
+            timeout.remainingRounds = (expireTick - tick - 1) / wheel.length;
+            wheel[(int) (expireTick & mask)].add(timeout);
+        }
+    }
+
+    private void expireBucket(ArrayList<Timeout> bucket) {
+        if (bucket.isEmpty()) return;
+        ArrayList<Timeout> expired = null;
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.cancelled) {
+                iterator.remove();
+                pendingTimeouts.decrementAndGet();
+            } else if (timeout.remainingRounds <= 0) {
+                iterator.remove();
+                pendingTimeouts.decrementAndGet();
+                if (expired == null) expired = new ArrayList<>();
+                expired.add(timeout);
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+        if (expired == null) return;
+        for (Timeout timeout : expired) {
+            timeout.expired = true;
+            try {
+                timeout.task.run();
+            } catch (Exception e) {
+                log.error("Error while running timeout task", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package com.openwallet.stratumj;
+
+import com.google.common.base.Charsets;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads JSON values one token at a time directly from UTF-8 bytes.
+ *
+ * The typed readers of the server replies use it to build their objects straight from the
+ * received bytes, without an intermediate {@link JSONObject} or {@link JSONArray}:
+ *
+ * <pre>
+ * reader.beginArray();
+ * while (reader.hasNext()) {
+ *     reader.beginObject();
+ *     while (reader.hasNext()) {
+ *         String name = reader.nextName();
+ *         ...
+ *     }
+ *     reader.endObject();
+ * }
+ * reader.endArray();
+ * </pre>
+ *
+ * Not thread safe.
+ *
+ * @author John L. Jegutanis
+ */
+public final class JsonReader {
+    private final byte[] buffer;
+    private int position;
+    private final int end;
+    // True after a value, the next value of the same array or object must be preceded by a comma
+    private boolean afterValue = false;
+
+    public JsonReader(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    public JsonReader(byte[] bytes, int offset, int length) {
+        buffer = bytes;
+        position = offset;
+        end = offset + length;
+    }
+
+    public void beginArray() throws JSONException {
+        beforeValue();
+        expect('[');
+        afterValue = false;
+    }
+
+    public void endArray() throws JSONException {
+        skipWhitespace();
+        expect(']');
+        afterValue = true;
+    }
+
+    public void beginObject() throws JSONException {
+        beforeValue();
+        expect('{');
+        afterValue = false;
+    }
+
+    public void endObject() throws JSONException {
+        skipWhitespace();
+        expect('}');
+        afterValue = true;
+    }
+
+    /**
+     * Checks if the current array or object has more elements
+     */
+    public boolean hasNext() throws JSONException {
+        skipWhitespace();
+        byte b = peek();
+        if (b == ']' || b == '}') return false;
+        beforeValue();
+        return true;
+    }
+
+    /**
+     * Reads the name of the next member of an object, its value must be read next
+     */
+    public String nextName() throws JSONException {
+        beforeValue();
+        String name = readString();
+        skipWhitespace();
+        expect(':');
+        afterValue = false;
+        return name;
+    }
+
+    public String nextString() throws JSONException {
+        beforeValue();
+        String string = readString();
+        afterValue = true;
+        return string;
+    }
+
+    public long nextLong() throws JSONException {
+        beforeValue();
+        Object number = readNumber();
+        afterValue = true;
+        if (number instanceof Double) {
+            double value = (Double) number;
+            if (value != (long) value) throw syntaxError("Expected an integer");
+            return (long) value;
+        }
+        return ((Number) number).longValue();
+    }
+
+    public int nextInt() throws JSONException {
+        long value = nextLong();
+        if (value != (int) value) throw syntaxError("Integer out of range");
+        return (int) value;
+    }
+
+    /**
+     * Reads a hex string directly as bytes
+     */
+    public byte[] nextHex() throws JSONException {
+        beforeValue();
+        byte[] bytes = readHex(0);
+        if (bytes == null) throw syntaxError("Expected a hex string");
+        afterValue = true;
+        return bytes;
+    }
+
+    /**
+     * Reads the next value as a {@link JSONObject}, {@link JSONArray}, String, Boolean, Number
+     * or {@link JSONObject#NULL}
+     */
+    public Object nextValue() throws JSONException {
+        beforeValue();
+        Object value = readValue();
+        afterValue = true;
+        return value;
+    }
+
+    public void skipValue() throws JSONException {
+        beforeValue();
+        skip();
+        afterValue = true;
+    }
+
+    /**
+     * Checks that only whitespace is left after the last value
+     */
+    public void endDocument() throws JSONException {
+        skipWhitespace();
+        if (position != end) throw syntaxError("Unexpected data after the message");
+    }
+
+    /**
+     * If the next value is a hex string of at least the minimum length, decodes it and returns
+     * the bytes. Otherwise returns null and does not consume anything.
+     */
+    @Nullable
+    byte[] nextRawHex(int minLength) throws JSONException {
+        beforeValue();
+        byte[] bytes = readHex(minLength);
+        if (bytes != null) afterValue = true;
+        return bytes;
+    }
+
+    /**
+     * If the next value is an array, returns a copy of its bytes. Otherwise returns null and does
+     * not consume anything.
+     */
+    @Nullable
+    byte[] nextRawArray() throws JSONException {
+        beforeValue();
+        if (peek() != '[') return null;
+        int start = position;
+        skip();
+        afterValue = true;
+        return Arrays.copyOfRange(buffer, start, position);
+    }
+
+    private void beforeValue() throws JSONException {
+        skipWhitespace();
+        if (afterValue) {
+            expect(',');
+            skipWhitespace();
+            afterValue = false;
+            byte b = peek();
+            if (b == ']' || b == '}') throw syntaxError("Expected a value");
+        }
+    }
+
+    private Object readValue() throws JSONException {
+        switch (peek()) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                readLiteral("true");
+                return Boolean.TRUE;
+            case 'f':
+                readLiteral("false");
+                return Boolean.FALSE;
+            case 'n':
+                readLiteral("null");
+                return JSONObject.NULL;
+            default:
+                return readNumber();
+        }
+    }
+
+    private JSONObject readObject() throws JSONException {
+        JSONObject object = new JSONObject();
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return object;
+        }
+        while (true) {
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            object.put(key, readValue());
+            skipWhitespace();
+            byte next = next();
+            if (next == '}') return object;
+            if (next != ',') throw syntaxError("Expected ',' or '}'");
+            skipWhitespace();
+        }
+    }
+
+    private JSONArray readArray() throws JSONException {
+        JSONArray array = new JSONArray();
+        expect('[');
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return array;
+        }
+        while (true) {
+            array.put(readValue());
+            skipWhitespace();
+            byte next = next();
+            if (next == ']') return array;
+            if (next != ',') throw syntaxError("Expected ',' or ']'");
+            skipWhitespace();
+        }
+    }
+
+    /**
+     * Moves past the next value, checking its syntax without creating any object
+     */
+    private void skip() throws JSONException {
+        switch (peek()) {
+            case '{':
+            case '[':
+                byte close = next() == '{' ? (byte) '}' : (byte) ']';
+                skipWhitespace();
+                if (peek() == close) {
+                    position++;
+                    return;
+                }
+                while (true) {
+                    if (close == '}') {
+                        skipString();
+                        skipWhitespace();
+                        expect(':');
+                        skipWhitespace();
+                    }
+                    skip();
+                    skipWhitespace();
+                    byte next = next();
+                    if (next == close) return;
+                    if (next != ',') throw syntaxError("Expected ',' or '" + (char) close + "'");
+                    skipWhitespace();
+                }
+            case '"':
+                skipString();
+                return;
+            case 't':
+                readLiteral("true");
+                return;
+            case 'f':
+                readLiteral("false");
+                return;
+            case 'n':
+                readLiteral("null");
+                return;
+            default:
+                skipNumber();
+        }
+    }
+
+    private String readString() throws JSONException {
+        expect('"');
+        int start = position;
+        // Fast path, strings without escape sequences are decoded in one go. The UTF-8 multi-byte
+        // sequences never contain a quote or a backslash so it is safe to scan for them.
+        while (true) {
+            byte b = peek();
+            if (b == '"') {
+                String string = new String(buffer, start, position - start, Charsets.UTF_8);
+                position++;
+                return string;
+            }
+            if (b == '\\') break;
+            position++;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+            byte b = peek();
+            if (b == '"' || b == '\\') {
+                builder.append(new String(buffer, start, position - start, Charsets.UTF_8));
+                position++;
+                if (b == '"') return builder.toString();
+                readEscape(builder);
+                start = position;
+            } else {
+                position++;
+            }
+        }
+    }
+
+    private void skipString() throws JSONException {
+        expect('"');
+        while (true) {
+            byte b = next();
+            if (b == '"') return;
+            if (b == '\\') readEscape(null);
+        }
+    }
+
+    /**
+     * Reads an escape sequence after the backslash, appending the character to the builder if
+     * there is one
+     */
+    private void readEscape(@Nullable StringBuilder builder) throws JSONException {
+        byte b = next();
+        char c;
+        switch (b) {
+            case '"':
+            case '\\':
+            case '/':
+                c = (char) b;
+                break;
+            case 'b':
+                c = '\b';
+                break;
+            case 'f':
+                c = '\f';
+                break;
+            case 'n':
+                c = '\n';
+                break;
+            case 'r':
+                c = '\r';
+                break;
+            case 't':
+                c = '\t';
+                break;
+            case 'u':
+                if (position + 4 > end) throw syntaxError("Unexpected end of message");
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(buffer[position++], 16);
+                    if (digit < 0) throw syntaxError("Illegal unicode escape");
+                    code = (code << 4) | digit;
+                }
+                c = (char) code;
+                break;
+            default:
+                throw syntaxError("Illegal escape");
+        }
+        if (builder != null) builder.append(c);
+    }
+
+    /**
+     * If the next value is a lowercase hex string of at least the minimum length, decodes it and
+     * returns the bytes. Otherwise returns null and does not consume anything.
+     */
+    @Nullable
+    private byte[] readHex(int minLength) throws JSONException {
+        if (peek() != '"') return null;
+        int start = position + 1;
+        int i = start;
+        while (i < end && hexDigit(buffer[i]) >= 0) i++;
+        int length = i - start;
+        if (i == end || buffer[i] != '"' || length < minLength || length % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length / 2];
+        for (int j = 0; j < bytes.length; j++) {
+            int offset = start + j * 2;
+            bytes[j] = (byte) ((hexDigit(buffer[offset]) << 4) | hexDigit(buffer[offset + 1]));
+        }
+        position = i + 1;
+        return bytes;
+    }
+
+    private static int hexDigit(byte b) {
+        if (b >= '0' && b <= '9') return b - '0';
+        // Only lowercase, so that the string can be recreated exactly if needed
+        if (b >= 'a' && b <= 'f') return b - 'a' + 10;
+        return -1;
+    }
+
+    private Object readNumber() throws JSONException {
+        int start = position;
+        boolean isDecimal = skipNumber();
+        String number = new String(buffer, start, position - start, Charsets.US_ASCII);
+        try {
+            if (!isDecimal) {
+                try {
+                    long value = Long.parseLong(number);
+                    if (value == (int) value) return (int) value;
+                    return value;
+                } catch (NumberFormatException ignore) {
+                    // Too large for a long, fall through
+                }
+            }
+            return Double.valueOf(number);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Illegal number " + number);
+        }
+    }
+
+    /**
+     * Moves past a number and returns true if it has a fraction or an exponent
+     */
+    private boolean skipNumber() throws JSONException {
+        int start = position;
+        boolean isDecimal = false;
+        while (position < end) {
+            byte b = buffer[position];
+            if (b == '.' || b == 'e' || b == 'E') {
+                isDecimal = true;
+            } else if ((b < '0' || b > '9') && b != '-' && b != '+') {
+                break;
+            }
+            position++;
+        }
+        if (start == position) throw syntaxError("Unexpected character");
+        return isDecimal;
+    }
+
+    private void readLiteral(String literal) throws JSONException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (position >= end || buffer[position++] != literal.charAt(i)) {
+                throw syntaxError("Expected " + literal);
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < end) {
+            byte b = buffer[position];
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') return;
+            position++;
+        }
+    }
+
+    private byte peek() throws JSONException {
+        if (position >= end) throw syntaxError("Unexpected end of message");
+        return buffer[position];
+    }
+
+    private byte next() throws JSONException {
+        byte b = peek();
+        position++;
+        return b;
+    }
+
+    private void expect(char c) throws JSONException {
+        if (peek() != c) throw syntaxError("Expected '" + c + "'");
+        position++;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at position " + position);
+    }
+}
@@ -0,0 +1,97 @@
+package com.openwallet.stratumj;
+
+import com.openwallet.stratumj.messages.BaseMessage;
+import com.openwallet.stratumj.messages.CallMessage;
+import com.openwallet.stratumj.messages.ResultMessage;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decodes a server message in a single pass directly from the received bytes.
+ *
+ * The top level object is never built as an intermediate {@link JSONObject}, the known keys are
+ * read straight into the matching {@link BaseMessage} subclass. A "result" that is a long hex
+ * string, like a raw transaction, is decoded directly to bytes without creating a String. A
+ * "result" that is an array is only checked and kept as bytes, so that it can be read later with
+ * a typed {@link JsonReader} instead of building a {@link JSONArray}.
+ *
+ * Not thread safe, each client uses its own decoder from the event loop thread.
+ *
+ * @author John L. Jegutanis
+ */
+final class MessageDecoder {
+    // Shorter hex strings like hashes and statuses are kept as regular strings
+    static final int MIN_RAW_HEX_LENGTH = 128;
+
+    BaseMessage decode(byte[] bytes, int offset, int length) throws JSONException {
+        JsonReader reader = new JsonReader(bytes, offset, length);
+        long id = -1;
+        String method = null;
+        JSONArray params = null;
+        boolean hasResult = false;
+        Object result = null;
+        byte[] rawResult = null;
+        byte[] rawJsonResult = null;
+        Map<String, Object> extra = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            switch (key) {
+                case "id":
+                    Object idValue = reader.nextValue();
+                    if (idValue instanceof Number) id = ((Number) idValue).longValue();
+                    break;
+                case "method":
+                    method = String.valueOf(reader.nextValue());
+                    break;
+                case "params":
+                    Object paramsValue = reader.nextValue();
+                    if (paramsValue instanceof JSONArray) {
+                        params = (JSONArray) paramsValue;
+                    } else {
+                        params = new JSONArray();
+                        params.put(paramsValue);
+                    }
+                    break;
+                case "result":
+                    hasResult = true;
+                    rawJsonResult = reader.nextRawArray();
+                    if (rawJsonResult == null) rawResult = reader.nextRawHex(MIN_RAW_HEX_LENGTH);
+                    if (rawJsonResult == null && rawResult == null) result = reader.nextValue();
+                    break;
+                default:
+                    if (extra == null) extra = new LinkedHashMap<>();
+                    extra.put(key, reader.nextValue());
+            }
+        }
+        reader.endObject();
+        reader.endDocument();
+
+        BaseMessage message;
+        if (hasResult) {
+            if (rawJsonResult != null) {
+                message = ResultMessage.fromRawJsonResult(id, rawJsonResult);
+            } else if (rawResult != null) {
+                message = ResultMessage.fromRawResult(id, rawResult);
+            } else {
+                message = new ResultMessage(id, result);
+            }
+        } else if (method != null) {
+            message = new CallMessage(id, method, params != null ? params : new JSONArray());
+        } else {
+            message = new BaseMessage(id);
+        }
+        if (extra != null) {
+            for (Map.Entry<String, Object> entry : extra.entrySet()) {
+                message.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return message;
+    }
+}
@@ -0,0 +1,47 @@
+package com.openwallet.stratumj;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Executes tasks one at a time and in submission order, borrowing threads from a shared executor.
+ * This allows many clients to share a small thread pool while each one still observes its own
+ * messages strictly in order.
+ *
+ * @author John L. Jegutanis
+ */
+public final class SerialExecutor implements Executor {
+    private final Executor executor;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+    private Runnable active;
+
+    public SerialExecutor(Executor executor) {
+        this.executor = checkNotNull(executor);
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        checkNotNull(task);
+        tasks.add(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        if ((active = tasks.poll()) != null) {
+            executor.execute(active);
+        }
+    }
+}
@@ -4,282 +4,614 @@ import com.openwallet.stratumj.messages.BaseMessage;
 import com.openwallet.stratumj.messages.CallMessage;
 import com.openwallet.stratumj.messages.MessageException;
 import com.openwallet.stratumj.messages.ResultMessage;
-import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
-import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.common.util.concurrent.AbstractService;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 
 import org.json.JSONException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
 
 /**
+ * A Stratum client that uses a non-blocking socket. All the clients share the same
+ * {@link StratumEventLoop} thread for I/O and a small pool of workers to handle the messages.
+ *
  * @author John L. Jegutanis
  */
-public class StratumClient extends AbstractExecutionThreadService {
+public class StratumClient extends AbstractService {
     private static final Logger log = LoggerFactory.getLogger(StratumClient.class);
-    private final int NUM_OF_WORKERS = 1;
+    private static final byte NEW_LINE = '\n';
+    private static final String NO_PARAM = "";
+
+    public static final long DEFAULT_CALL_TIMEOUT_SEC = 30;
 
     private AtomicLong idCounter = new AtomicLong();
+    private volatile long callTimeoutMillis = TimeUnit.SECONDS.toMillis(DEFAULT_CALL_TIMEOUT_SEC);
     private ServerAddress serverAddress;
-    private Socket socket;
-    @VisibleForTesting DataOutputStream toServer;
-    BufferedReader fromServer;
 
-    final private ExecutorService pool = Executors.newFixedThreadPool(NUM_OF_WORKERS);
+    private final StratumEventLoop eventLoop;
+    // Handles the messages of this client in the order they were received
+    private final Executor messageHandler;
+
+    private volatile SocketChannel channel;
+    // The following fields are only accessed from the event loop thread
+    private SelectionKey selectionKey;
+    private boolean startNotified = false;
+    private boolean closed = false;
+    private final MessageDecoder decoder = new MessageDecoder();
+    private byte[] lineBuffer = new byte[1024];
+    private int lineLength = 0;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+    // True if a flush is pending in the event loop, calls made until then are written together
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    // The bytes received from the server, written only by the event loop
+    private volatile long bytesReceived = 0;
 
     final private ConcurrentHashMap<Long, SettableFuture<ResultMessage>> callers =
             new ConcurrentHashMap<>();
 
-    final private ConcurrentHashMap<String, List<SubscribeResultHandler>> subscribersHandlers =
-            new ConcurrentHashMap<>();
-
-    final private BlockingQueue<BaseMessage> queue = new LinkedBlockingDeque<BaseMessage>();
-
+    // The subscription handlers by method and then by the first parameter, like an address. The
+    // handler arrays are never modified, they are replaced instead so that the dispatch does not
+    // need to copy or lock them.
+    final private ConcurrentHashMap<String, ConcurrentHashMap<String, SubscribeResultHandler[]>>
+            subscribersHandlers = new ConcurrentHashMap<>();
 
     public interface SubscribeResultHandler {
         void handle(CallMessage message);
     }
 
-    private class MessageHandler implements Runnable {
+    private final Runnable flushTask = new Runnable() {
         @Override
         public void run() {
-            while (!pool.isShutdown()) {
-                BaseMessage message = null;
-                try {
-                    message = queue.take();
-                } catch (InterruptedException ignored) { }
-
-                if (message != null) {
-                    handle(message);
-                }
-            }
-            log.info("Shutdown message handler thread: {}", Thread.currentThread().getName());
+            flush();
         }
+    };
 
-        private void handle(BaseMessage message) {
-            if (message instanceof ResultMessage) {
-                ResultMessage reply = (ResultMessage) message;
-                if (callers.containsKey(reply.getId())) {
-                    SettableFuture<ResultMessage> future = callers.get(reply.getId());
-                    future.set(reply);
-                    callers.remove(reply.getId());
-                } else {
-                    log.error("Received reply from server, but could not find caller",
-                            new MessageException("Orphaned reply", reply.toString()));
-                }
-            } else if (message instanceof CallMessage) {
-                CallMessage reply = (CallMessage) message;
-                if (subscribersHandlers.containsKey(reply.getMethod())) {
-                    List<SubscribeResultHandler> subs;
-
-                    synchronized (subscribersHandlers.get(reply.getMethod())) {
-                        // Make a defensive copy
-                        subs = ImmutableList.copyOf(subscribersHandlers.get(reply.getMethod()));
-                    }
-
-                    for (SubscribeResultHandler handler : subs) {
-                        try {
-                            log.debug("Running subscriber handler with result: " + reply);
-                            handler.handle(reply);
-                        } catch (Exception e) {
-                            log.error("Error while executing subscriber handler", e);
-                        }
-                    }
-                } else {
-                    log.error("Received call from server, but not could find subscriber",
-                            new MessageException("Orphaned call", reply.toString()));
-                }
-
-            } else {
-                log.error("Unable to handle message",
-                        new MessageException("Unhandled message", message.toString()));
-            }
+    private final Runnable shutdownTask = new Runnable() {
+        @Override
+        public void run() {
+            shutdown(null);
         }
-    }
+    };
 
     public StratumClient(ServerAddress address) {
         serverAddress = address;
+        eventLoop = StratumEventLoop.get();
+        messageHandler = eventLoop.newSerialExecutor();
     }
 
     public StratumClient(String host, int port) {
-        serverAddress = new ServerAddress(host, port);
+        this(new ServerAddress(host, port));
+    }
+
+    /**
+     * Sets the maximum time to wait for the reply of a call, after that the call fails with a
+     * {@link TimeoutException}. Only affects the calls made after this one. Zero disables it.
+     */
+    public void setCallTimeout(long timeout, TimeUnit unit) {
+        checkArgument(timeout >= 0, "Timeout cannot be negative");
+        callTimeoutMillis = unit.toMillis(timeout);
     }
 
     public long getCurrentId() {
         return idCounter.get();
     }
 
-    protected Socket createSocket() throws IOException {
+    /**
+     * Creates a non-blocking channel that is connected or is in the process of connecting to
+     * the server. Called from a worker thread as it may need to resolve the server host.
+     */
+    protected SocketChannel createChannel() throws IOException {
         ServerAddress address = serverAddress;
         log.debug("Opening a socket to " + address.getHost() + ":" + address.getPort());
 
-        return new Socket(address.getHost(), address.getPort());
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(address.getHost(), address.getPort()));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
     }
 
     @Override
-    protected void startUp() {
-        for (int i = 0; i < NUM_OF_WORKERS; i++) {
-            pool.submit(new MessageHandler());
-        }
-        try {
-            socket = createSocket();
-            log.info("Creating I/O streams to socket: {}", socket);
-            toServer = new DataOutputStream(socket.getOutputStream());
-            fromServer = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        } catch (Exception e) {
-            log.info("Unable to create socket for {}", serverAddress);
-            triggerShutdown();
-        }
+    protected void doStart() {
+        eventLoop.getWorkers().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    channel = createChannel();
+                    eventLoop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            register();
+                        }
+                    });
+                } catch (Exception e) {
+                    log.info("Unable to create socket for {}", serverAddress);
+                    eventLoop.execute(shutdownTask);
+                }
+            }
+        });
     }
 
     @Override
-    protected void triggerShutdown() {
-        log.info("Shutting down {}", serverAddress);
-        disconnect();
-        pool.shutdownNow();
-        for (SettableFuture<ResultMessage> future : callers.values()) {
-            future.cancel(true);
+    protected void doStop() {
+        eventLoop.execute(shutdownTask);
+    }
+
+    private void register() {
+        if (closed) return;
+        try {
+            if (channel.isConnected()) {
+                selectionKey = eventLoop.register(channel, SelectionKey.OP_READ, this);
+                onConnected();
+            } else {
+                selectionKey = eventLoop.register(channel, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (IOException e) {
+            log.info("Unable to create socket for {}", serverAddress);
+            shutdown(null);
         }
-        callers.clear();
-        subscribersHandlers.clear();
     }
 
-    @Override
-    protected void run() {
+    private void onConnected() {
+        log.info("Connected to {}", serverAddress);
+        selectionKey.interestOps(SelectionKey.OP_READ);
+        startNotified = true;
+        notifyStarted();
         log.debug("Started listening for server replies");
+        flush();
+    }
 
-        String serverMessage;
-        while (isRunning() && isConnected()) {
-            try {
-                serverMessage = fromServer.readLine();
-            } catch (IOException e) {
-                if (isRunning()) {
-                    log.info("Error communicating with server: {}", e.getMessage());
-                    triggerShutdown();
+    /**
+     * Called by the event loop when the channel of this client is ready for I/O
+     */
+    void onSelected(SelectionKey key) {
+        if (closed || !key.isValid()) return;
+        try {
+            if (key.isConnectable()) {
+                try {
+                    if (channel.finishConnect()) onConnected();
+                } catch (IOException e) {
+                    log.info("Unable to create socket for {}", serverAddress);
+                    shutdown(null);
+                    return;
                 }
-                break;
             }
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (IOException e) {
+            log.info("Error communicating with server: {}", e.getMessage());
+            shutdown(e);
+        }
+    }
 
-            if(serverMessage == null) {
+    private void read() throws IOException {
+        ByteBuffer buffer = eventLoop.readBuffer;
+        int read;
+        buffer.clear();
+        while (!closed && (read = channel.read(buffer)) != 0) {
+            if (read < 0) {
                 log.info("Server closed communications. Shutting down");
-                triggerShutdown();
-                break;
+                shutdown(null);
+                return;
+            }
+            bytesReceived += read;
+            buffer.flip();
+            consume(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Splits the received bytes into lines, one line per message
+     */
+    private void consume(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        int start = buffer.position();
+        int end = buffer.limit();
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == NEW_LINE) {
+                if (lineLength == 0) {
+                    // The whole message is in the read buffer, decode it without copying
+                    onMessage(bytes, start, i - start);
+                } else {
+                    appendToLine(bytes, start, i - start);
+                    onMessage(lineBuffer, 0, lineLength);
+                    lineLength = 0;
+                }
+                start = i + 1;
             }
+        }
+        appendToLine(bytes, start, end - start);
+    }
 
-            log.debug("Received message from server: " + serverMessage);
+    private void appendToLine(byte[] bytes, int offset, int length) {
+        if (length <= 0) return;
+        if (lineLength + length > lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, lineLength + length));
+        }
+        System.arraycopy(bytes, offset, lineBuffer, lineLength, length);
+        lineLength += length;
+    }
 
-            BaseMessage reply;
-            try {
-                reply = BaseMessage.fromJson(serverMessage);
-            } catch (JSONException e) {
-                log.error("Server sent malformed data", e);
-                continue;
+    private void onMessage(byte[] bytes, int offset, int length) {
+        if (length == 0) return;
+        if (log.isDebugEnabled()) {
+            log.debug("Received message from server: {}",
+                    new String(bytes, offset, length, Charsets.UTF_8));
+        }
+
+        final BaseMessage reply;
+        try {
+            reply = decoder.decode(bytes, offset, length);
+        } catch (JSONException e) {
+            log.error("Server sent malformed data", e);
+            return;
+        }
+
+        messageHandler.execute(new Runnable() {
+            @Override
+            public void run() {
+                handle(reply);
             }
+        });
+    }
 
-            if (reply.errorOccured()) {
-                Exception e = new MessageException(reply.getError(), reply.getFailedRequest());
-                log.error("Failed call", e);
-                // TODO set exception to the correct future object
-//                if (callers.containsKey()) {
-//                    SettableFuture<ResultMessage> future = callers.get();
-//                    future.setException(e);
-//                } else {
-//                    log.error("Failed orphaned call", e);
-//                }
+    private void handle(BaseMessage message) {
+        if (message.errorOccured()) {
+            handleError(message);
+        } else if (message instanceof ResultMessage) {
+            ResultMessage reply = (ResultMessage) message;
+            SettableFuture<ResultMessage> future = callers.remove(reply.getId());
+            if (future != null) {
+                future.set(reply);
             } else {
-                boolean added = false;
-
-                try {
-                    if (reply.isResult()) {
-                        reply = ResultMessage.fromJson(serverMessage);
-                    } else if (reply.isCall()) {
-                        reply = CallMessage.fromJson(serverMessage);
+                log.error("Received reply from server, but could not find caller",
+                        new MessageException("Orphaned reply", reply.toString()));
+            }
+        } else if (message instanceof CallMessage) {
+            CallMessage reply = (CallMessage) message;
+            SubscribeResultHandler[] handlers = getHandlers(reply.getMethod(), getSubscriptionParam(reply));
+            if (handlers != null) {
+                for (SubscribeResultHandler handler : handlers) {
+                    try {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Running subscriber handler with result: " + reply);
+                        }
+                        handler.handle(reply);
+                    } catch (Exception e) {
+                        log.error("Error while executing subscriber handler", e);
                     }
-                } catch (JSONException e) {
-                    // Should not happen as we already checked this exception
-                    throw new RuntimeException(e);
                 }
+            } else {
+                log.error("Received call from server, but not could find subscriber",
+                        new MessageException("Orphaned call", reply.toString()));
+            }
 
-                while (!added) {
-                    try {
-                        queue.put(reply);
-                        added = true;
-                    } catch (InterruptedException e) {
-                        log.debug("Interrupted while adding server reply to queue. Retrying...");
-                    }
+        } else {
+            log.error("Unable to handle message",
+                    new MessageException("Unhandled message", message.toString()));
+        }
+    }
+
+    /**
+     * Fails the caller of the request that caused the error
+     */
+    private void handleError(BaseMessage reply) {
+        Exception e = new MessageException(reply.getError(), reply.getFailedRequest());
+        long id = reply.getId();
+        if (id < 0) {
+            // Old servers do not set the id, but echo back the failed request
+            try {
+                id = BaseMessage.fromJson(reply.getFailedRequest()).getId();
+            } catch (JSONException ignore) { /* not a valid request */ }
+        }
+
+        SettableFuture<ResultMessage> future = id >= 0 ? callers.remove(id) : null;
+        if (future != null) {
+            future.setException(e);
+        } else {
+            log.error("Failed call", e);
+        }
+    }
+
+    /**
+     * Fails the call if the server does not reply before the timeout. The timeout is cancelled as
+     * soon as the call completes, either normally or with an error.
+     */
+    private void scheduleTimeout(final long id, SettableFuture<ResultMessage> future,
+                                 final long timeoutMillis) {
+        final HashedWheelTimer.Timeout timeout = eventLoop.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                SettableFuture<ResultMessage> expired = callers.remove(id);
+                if (expired != null) {
+                    log.warn("No reply from {} for call {} after {}ms", serverAddress, id, timeoutMillis);
+                    expired.setException(new TimeoutException("No reply for call " + id +
+                            " after " + timeoutMillis + "ms"));
                 }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
 
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                timeout.cancel();
             }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(flushTask);
         }
-        log.info("Finished listening for server replies");
     }
 
-    public boolean isConnected() {
-        return socket != null && socket.isConnected();
+    /**
+     * Writes as much of the queued messages as the socket accepts. If some data remains, the
+     * event loop will call this method again when the socket becomes writable.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        if (closed) {
+            // Calls queued after the shutdown
+            writeQueue.clear();
+            failCallers(new ClosedChannelException());
+            return;
+        }
+        // Still connecting, will flush when the connection is established
+        if (selectionKey == null || !channel.isConnected()) return;
+
+        try {
+            // Write all the pending messages with a single gathering write
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer[] buffers = writeQueue.toArray(new ByteBuffer[0]);
+                channel.write(buffers);
+                int written = 0;
+                while (written < buffers.length && !buffers[written].hasRemaining()) {
+                    writeQueue.poll();
+                    written++;
+                }
+                if (written < buffers.length) break;
+            }
+        } catch (IOException e) {
+            log.error("Error making a call to the server: {}", e.getMessage());
+            shutdown(e);
+            return;
+        }
+
+        if (writeQueue.isEmpty()) {
+            selectionKey.interestOps(SelectionKey.OP_READ);
+        } else {
+            selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
     }
 
+    /**
+     * Closes the connection and terminates this service. Must be called from the event loop.
+     *
+     * @param cause if not null, the pending calls fail with this exception instead of being cancelled
+     */
+    private void shutdown(@Nullable Throwable cause) {
+        if (closed) return;
+        closed = true;
+        log.info("Shutting down {}", serverAddress);
 
-    public void disconnect() {
-        if (isConnected()) {
+        if (selectionKey != null) selectionKey.cancel();
+        if (channel != null) {
             try {
-                socket.close();
+                channel.close();
             } catch (IOException e) {
                 log.error("Unable to close socket", e);
             }
         }
+        writeQueue.clear();
+        failCallers(cause);
+        subscribersHandlers.clear();
+
+        // Like the blocking client, a failed connection still goes through the running state so
+        // that the listeners get the terminated event and can reconnect.
+        if (!startNotified) {
+            startNotified = true;
+            notifyStarted();
+        }
+        State state = state();
+        if (state == State.RUNNING || state == State.STOPPING) {
+            notifyStopped();
+        }
+        log.info("Finished listening for server replies");
+    }
+
+    private void failCallers(@Nullable Throwable cause) {
+        for (Long id : callers.keySet()) {
+            SettableFuture<ResultMessage> future = callers.remove(id);
+            if (future == null) continue;
+            if (cause != null) {
+                future.setException(cause);
+            } else {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Get the number of bytes received from the server since this client was started
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public boolean isConnected() {
+        SocketChannel channel = this.channel;
+        return channel != null && channel.isConnected();
+    }
+
+
+    public void disconnect() {
+        eventLoop.execute(shutdownTask);
     }
 
     public ListenableFuture<ResultMessage> call(CallMessage message) {
-        SettableFuture<ResultMessage> future = SettableFuture.create();
+        return call(ImmutableList.of(message)).get(0);
+    }
 
-        message.setId(idCounter.getAndIncrement());
+    /**
+     * Makes several calls at once. The messages are pipelined in a single write and each reply
+     * completes its own future, in the same order as the messages.
+     */
+    public List<ListenableFuture<ResultMessage>> call(List<CallMessage> messages) {
+        ImmutableList.Builder<ListenableFuture<ResultMessage>> futures = ImmutableList.builder();
+        if (messages.isEmpty()) return futures.build();
+
+        SocketChannel channel = this.channel;
+        boolean isOpen = channel != null && channel.isOpen();
+        long timeoutMillis = callTimeoutMillis;
+        StringBuilder batch = new StringBuilder();
+        for (CallMessage message : messages) {
+            SettableFuture<ResultMessage> future = SettableFuture.create();
+            futures.add(future);
+            message.setId(idCounter.getAndIncrement());
+            if (isOpen) {
+                // Register the caller before writing as the reply can arrive at any time
+                callers.put(message.getId(), future);
+                if (timeoutMillis > 0) scheduleTimeout(message.getId(), future, timeoutMillis);
+                batch.append(message.toString());
+            } else {
+                future.setException(new ClosedChannelException());
+            }
+        }
 
-        try {
-            toServer.writeBytes(message.toString());
-            callers.put(message.getId(), future);
-        } catch (Throwable e) {
-            future.setException(e);
-            log.error("Error making a call to the server: {}", e.getMessage());
-            triggerShutdown();
+        if (isOpen) {
+            writeQueue.add(ByteBuffer.wrap(batch.toString().getBytes(Charsets.UTF_8)));
+            scheduleFlush();
+        } else {
+            log.error("Error making a call to the server: not connected");
         }
 
-        return future;
+        return futures.build();
     }
 
     public ListenableFuture<ResultMessage> subscribe(CallMessage message, SubscribeResultHandler handler) {
-        // Add the subscription handler the the subscribersHandlers map so that any future
-        // subscription call will be handled by it.
+        return subscribe(ImmutableList.of(message), handler).get(0);
+    }
 
-        // If this particular method was not used before, initialize a list of handlers
-        if (!subscribersHandlers.containsKey(message.getMethod())) {
-            subscribersHandlers.put(message.getMethod(),
-                    Collections.synchronizedList(new ArrayList<SubscribeResultHandler>()));
+    /**
+     * Subscribes with all the messages at once, see {@link #call(List)}. All the messages must
+     * call the same method.
+     */
+    public List<ListenableFuture<ResultMessage>> subscribe(List<CallMessage> messages,
+                                                           SubscribeResultHandler handler) {
+        if (messages.isEmpty()) return ImmutableList.of();
+
+        // Add the subscription handler so that any future notification is handled by it
+        for (CallMessage message : messages) {
+            addHandler(message.getMethod(), getSubscriptionParam(message), handler);
         }
 
-        // Add handler if needed
-        if (!subscribersHandlers.get(message.getMethod()).contains(handler)) {
-            subscribersHandlers.get(message.getMethod()).add(handler);
+        // Make the subscription calls, the server will reply immediately
+        return call(messages);
+    }
+
+    /**
+     * Stops passing the notifications of the subscription to the handler. The server does not
+     * support canceling subscriptions, so its notifications are ignored from now on.
+     */
+    public void unsubscribe(CallMessage message, SubscribeResultHandler handler) {
+        removeHandler(message.getMethod(), getSubscriptionParam(message), handler);
+    }
+
+    public void unsubscribe(List<CallMessage> messages, SubscribeResultHandler handler) {
+        for (CallMessage message : messages) {
+            unsubscribe(message, handler);
         }
+    }
 
-        // Make the subscription call, the server will reply immediately
-        return call(message);
+    /**
+     * Get the parameter that identifies a subscription, like the address of an address
+     * subscription. Subscriptions without a string parameter, like the block headers, are only
+     * identified by the method.
+     */
+    private static String getSubscriptionParam(CallMessage message) {
+        Object param = message.getParams().opt(0);
+        return param instanceof String ? (String) param : NO_PARAM;
+    }
+
+    @Nullable
+    private SubscribeResultHandler[] getHandlers(String method, String param) {
+        ConcurrentHashMap<String, SubscribeResultHandler[]> handlers = subscribersHandlers.get(method);
+        return handlers != null ? handlers.get(param) : null;
+    }
+
+    private void addHandler(String method, String param, SubscribeResultHandler handler) {
+        ConcurrentHashMap<String, SubscribeResultHandler[]> handlers = subscribersHandlers.get(method);
+        if (handlers == null) {
+            subscribersHandlers.putIfAbsent(method, new ConcurrentHashMap<String, SubscribeResultHandler[]>());
+            handlers = subscribersHandlers.get(method);
+        }
+
+        while (true) {
+            SubscribeResultHandler[] current = handlers.get(param);
+            if (current == null) {
+                if (handlers.putIfAbsent(param, new SubscribeResultHandler[]{handler}) == null) return;
+            } else {
+                if (Arrays.asList(current).contains(handler)) return;
+                SubscribeResultHandler[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = handler;
+                if (handlers.replace(param, current, updated)) return;
+            }
+        }
+    }
+
+    private void removeHandler(String method, String param, SubscribeResultHandler handler) {
+        ConcurrentHashMap<String, SubscribeResultHandler[]> handlers = subscribersHandlers.get(method);
+        if (handlers == null) return;
+
+        while (true) {
+            SubscribeResultHandler[] current = handlers.get(param);
+            if (current == null) return;
+            int index = Arrays.asList(current).indexOf(handler);
+            if (index < 0) return;
+            if (current.length == 1) {
+                if (handlers.remove(param, current)) return;
+            } else {
+                SubscribeResultHandler[] updated = new SubscribeResultHandler[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+                if (handlers.replace(param, current, updated)) return;
+            }
+        }
     }
 }
@@ -0,0 +1,151 @@
+package com.openwallet.stratumj;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single selector thread that multiplexes the connections of every {@link StratumClient}.
+ *
+ * All socket I/O happens in the event loop thread. The decoded messages are then handed to a
+ * small shared pool of workers, so a slow handler never blocks the other connections.
+ *
+ * @author John L. Jegutanis
+ */
+final class StratumEventLoop implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(StratumEventLoop.class);
+
+    private static final int NUM_OF_WORKERS = 2;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final long TIMER_TICK_MS = 100;
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
+
+    private static StratumEventLoop instance;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final ExecutorService workers;
+    private final HashedWheelTimer timer =
+            new HashedWheelTimer(TIMER_TICK_MS, TimeUnit.MILLISECONDS, TIMER_TICKS_PER_WHEEL);
+
+    // Shared by all the connections, only used from the event loop thread
+    final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    static synchronized StratumEventLoop get() {
+        if (instance == null) {
+            instance = new StratumEventLoop();
+        }
+        return instance;
+    }
+
+    private StratumEventLoop() {
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to open a selector", e);
+        }
+        workers = Executors.newFixedThreadPool(NUM_OF_WORKERS, new ThreadFactoryBuilder()
+                .setNameFormat("Stratum worker %d").setDaemon(true).build());
+        thread = new Thread(this, "Stratum event loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs the task in the event loop thread. Tasks are executed in submission order.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Returns an executor that runs its tasks in order on the shared worker pool
+     */
+    Executor newSerialExecutor() {
+        return new SerialExecutor(workers);
+    }
+
+    /**
+     * Schedules a task to run in the event loop thread after the delay. Meant for timeouts that
+     * are usually cancelled before they expire.
+     */
+    HashedWheelTimer.Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        boolean wasIdle = timer.pendingTimeouts() == 0;
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(task, delay, unit);
+        // Wake up the selector as it may be waiting without a timeout
+        if (wasIdle) selector.wakeup();
+        return timeout;
+    }
+
+    Executor getWorkers() {
+        return workers;
+    }
+
+    SelectionKey register(SocketChannel channel, int ops, StratumClient client)
+            throws ClosedChannelException {
+        if (!inEventLoop()) throw new IllegalStateException("Not in the event loop thread");
+        return channel.register(selector, ops, client);
+    }
+
+    @Override
+    public void run() {
+        log.info("Started Stratum event loop");
+        while (true) {
+            runTasks();
+            try {
+                if (timer.pendingTimeouts() > 0) {
+                    selector.select(TIMER_TICK_MS);
+                } else {
+                    selector.select();
+                }
+            } catch (IOException e) {
+                log.error("Error while waiting for socket events", e);
+                continue;
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                StratumClient client = (StratumClient) key.attachment();
+                try {
+                    client.onSelected(key);
+                } catch (Exception e) {
+                    log.error("Unexpected error while handling socket event", e);
+                }
+            }
+            timer.expireTimeouts();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Error while running event loop task", e);
+            }
+        }
+    }
+}
@@ -46,6 +46,17 @@ public class CallMessage extends BaseMessage {
         setId(id);
     }
 
+    public CallMessage(long id, String method, JSONArray params) {
+        super(id);
+        setMethod(method);
+        try {
+            put("params", params);
+        } catch (JSONException e) {
+            // Should never happen because "params" is a valid JSON name
+            throw new RuntimeException(e);
+        }
+    }
+
     public static CallMessage fromJson(String json) throws JSONException {
         return new CallMessage(json);
     }
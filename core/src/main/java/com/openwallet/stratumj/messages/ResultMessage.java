@@ -1,21 +1,117 @@
 package com.openwallet.stratumj.messages;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.openwallet.stratumj.JsonReader;
+
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+import javax.annotation.Nullable;
 
 /**
  * @author John L. Jegutanis
  */
 public class ResultMessage extends BaseMessage {
+    private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+    // A hex string result that was decoded directly to bytes
+    @Nullable private byte[] rawResult;
+    // An array result that was kept as the received JSON bytes
+    @Nullable private byte[] rawJsonResult;
+
     protected ResultMessage(String source) throws JSONException {
         super(source);
     }
 
+    public ResultMessage(long id, @Nullable Object result) {
+        super(id);
+        try {
+            put("result", result != null ? result : JSONObject.NULL);
+        } catch (JSONException e) {
+            // Should never happen because "result" is a valid JSON name
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ResultMessage(long id, byte[] rawResult) {
+        super(id);
+        this.rawResult = rawResult;
+    }
+
+    private ResultMessage(long id) {
+        super(id);
+    }
+
     public static ResultMessage fromJson(String json) throws JSONException {
         return new ResultMessage(json);
     }
 
+    /**
+     * Create a result message from a hex string result that was already decoded to bytes. The
+     * string is only created if the result is requested with {@link #getResult()}.
+     */
+    public static ResultMessage fromRawResult(long id, byte[] rawResult) {
+        return new ResultMessage(id, rawResult);
+    }
+
+    /**
+     * Create a result message from an array result that is kept as its JSON bytes. The array is
+     * only built if the result is requested with {@link #getResult()}, the typed readers use
+     * {@link #getResultReader()} instead.
+     */
+    public static ResultMessage fromRawJsonResult(long id, byte[] rawJsonResult) {
+        ResultMessage message = new ResultMessage(id);
+        message.rawJsonResult = rawJsonResult;
+        return message;
+    }
+
+    /**
+     * Get a reader of the same value that {@link #getResult()} returns. If the result was kept as
+     * JSON bytes the reader reads them directly.
+     */
+    public JsonReader getResultReader() {
+        if (rawJsonResult != null && !has("result")) return new JsonReader(rawJsonResult);
+        return new JsonReader(getResult().toString().getBytes(Charsets.UTF_8));
+    }
+
+    /**
+     * Get the result as bytes, if the result is a hex string like a raw transaction
+     */
+    public byte[] getRawResult() throws JSONException {
+        if (rawResult != null) return rawResult;
+        try {
+            return HEX.decode(getString("result").toLowerCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new JSONException("Result is not a hex string");
+        }
+    }
+
+    @Override
+    public boolean isResult() {
+        return rawResult != null || rawJsonResult != null || super.isResult();
+    }
+
+    private void createResultIfNeeded() {
+        if (has("result")) return;
+        try {
+            if (rawResult != null) {
+                put("result", HEX.encode(rawResult));
+            } else if (rawJsonResult != null) {
+                // The bytes were already checked by the decoder
+                put("result", new JsonReader(rawJsonResult).nextValue());
+            }
+        } catch (JSONException e) {
+            // Should never happen because "result" is a valid JSON name
+            throw new RuntimeException(e);
+        }
+    }
+
     public JSONArray getResult() {
+        createResultIfNeeded();
         if (has("result")) {
             if (opt("result") instanceof JSONArray) {
                 try {
@@ -38,4 +134,10 @@ public class ResultMessage extends BaseMessage {
             return new JSONArray();
         }
     }
+
+    @Override
+    public String toString() {
+        createResultIfNeeded();
+        return super.toString();
+    }
 }
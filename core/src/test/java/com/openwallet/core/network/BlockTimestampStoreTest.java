@@ -0,0 +1,72 @@
+package com.openwallet.core.network;
+
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author John L. Jegutanis
+ */
+public class BlockTimestampStoreTest {
+    File dir;
+    File file;
+
+    @Before
+    public void setup() {
+        dir = Files.createTempDir();
+        file = new File(new File(dir, "BTC"), "block_times.dat");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        file.getParentFile().delete();
+        dir.delete();
+    }
+
+    @Test
+    public void putAndGet() throws IOException {
+        BlockTimestampStore store = new BlockTimestampStore(file);
+        assertNull(store.get(0));
+        assertNull(store.get(300000));
+
+        store.put(300000, 1399703554L);
+        store.put(10, 1231473279L);
+        // Timestamps after 2038 still fit
+        store.put(11, 3000000000L);
+
+        assertEquals(1399703554L, (long) store.get(300000));
+        assertEquals(1231473279L, (long) store.get(10));
+        assertEquals(3000000000L, (long) store.get(11));
+        assertNull(store.get(12));
+        assertNull(store.get(300001));
+        assertEquals(300001 * 4, file.length());
+
+        // Invalid timestamps are ignored
+        store.put(12, 0);
+        store.put(13, -1);
+        assertNull(store.get(12));
+        assertNull(store.get(13));
+        store.close();
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        BlockTimestampStore store = new BlockTimestampStore(file);
+        store.put(1000, 1231473279L);
+        store.close();
+
+        store = new BlockTimestampStore(file);
+        assertEquals(1231473279L, (long) store.get(1000));
+        assertNull(store.get(999));
+        store.close();
+    }
+}
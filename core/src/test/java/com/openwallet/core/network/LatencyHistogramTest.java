@@ -0,0 +1,51 @@
+package com.openwallet.core.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author John L. Jegutanis
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void buckets() {
+        assertEquals(0, LatencyHistogram.getBucket(0));
+        assertEquals(1, LatencyHistogram.getBucket(1));
+        assertEquals(2, LatencyHistogram.getBucket(2));
+        assertEquals(2, LatencyHistogram.getBucket(3));
+        assertEquals(11, LatencyHistogram.getBucket(1024));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getBucketUpperBound(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.5));
+
+        for (int i = 0; i < 90; i++) histogram.record(10);
+        for (int i = 0; i < 10; i++) histogram.record(1000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(109, histogram.getMean());
+        assertEquals(1000, histogram.getMax());
+        // 10ms is in the bucket up to 16ms
+        assertEquals(16, histogram.getPercentile(0.5));
+        assertEquals(16, histogram.getPercentile(0.9));
+        // Never more than the maximum
+        assertEquals(1000, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void copyIsNotUpdated() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5);
+        LatencyHistogram copy = histogram.copy();
+        histogram.record(5);
+
+        assertEquals(1, copy.getCount());
+        assertEquals(1, copy.getBucketCount(LatencyHistogram.getBucket(5)));
+        assertEquals(2, histogram.getCount());
+    }
+}
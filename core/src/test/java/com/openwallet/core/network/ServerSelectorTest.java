@@ -0,0 +1,92 @@
+package com.openwallet.core.network;
+
+import com.openwallet.stratumj.ServerAddress;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author John L. Jegutanis
+ */
+public class ServerSelectorTest {
+    final ServerAddress fast = new ServerAddress("fast.example.com", 5001);
+    final ServerAddress slow = new ServerAddress("slow.example.com", 5001);
+    final ServerAddress unknown = new ServerAddress("unknown.example.com", 5001);
+    final Set<ServerAddress> none = ImmutableSet.of();
+
+    ServerSelector selector;
+
+    @Before
+    public void setup() {
+        // A seeded random makes the exploration picks repeatable
+        selector = new ServerSelector(ImmutableList.of(fast, slow, unknown), new Random(0));
+    }
+
+    private int countSelected(ServerAddress address, Set<ServerAddress> excluded) {
+        int count = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (selector.select(excluded).equals(address)) count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void preferFastest() {
+        selector.recordLatency(fast, 100);
+        selector.recordLatency(slow, 2000);
+
+        assertEquals(100, selector.getLatency(fast));
+        assertEquals(-1, selector.getLatency(unknown));
+        // Mostly picks the fastest, sometimes explores the others
+        assertTrue(countSelected(fast, none) > 850);
+        assertTrue(countSelected(unknown, none) > 0);
+    }
+
+    @Test
+    public void unknownServersAreTried() {
+        selector.recordLatency(fast, 1000);
+        selector.recordLatency(slow, 2000);
+
+        assertTrue(countSelected(unknown, none) > 850);
+    }
+
+    @Test
+    public void failuresLowerTheScore() {
+        selector.recordLatency(fast, 100);
+        selector.recordLatency(slow, 300);
+        for (int i = 0; i < 5; i++) {
+            selector.recordFailure(fast);
+        }
+        assertTrue(selector.getScore(fast) > selector.getScore(slow));
+
+        // Recovers after successful round trips
+        for (int i = 0; i < 20; i++) {
+            selector.recordLatency(fast, 100);
+        }
+        assertTrue(selector.getScore(fast) < selector.getScore(slow));
+    }
+
+    @Test
+    public void movingAverage() {
+        selector.recordLatency(fast, 100);
+        selector.recordLatency(fast, 200);
+        assertEquals(130, selector.getLatency(fast));
+    }
+
+    @Test
+    public void excluded() {
+        selector.recordLatency(fast, 100);
+
+        assertEquals(0, countSelected(fast, ImmutableSet.of(fast)));
+        // If all are excluded, select from all of them
+        assertTrue(countSelected(fast, ImmutableSet.of(fast, slow, unknown)) > 850);
+    }
+}
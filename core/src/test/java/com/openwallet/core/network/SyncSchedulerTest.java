@@ -0,0 +1,76 @@
+package com.openwallet.core.network;
+
+import com.openwallet.core.coins.BitcoinMain;
+import com.openwallet.core.coins.DogecoinMain;
+import com.openwallet.core.coins.LitecoinMain;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author John L. Jegutanis
+ */
+public class SyncSchedulerTest {
+    @Test
+    public void sameExecutorPerCoin() {
+        assertSame(SyncScheduler.getExecutor(BitcoinMain.get()),
+                SyncScheduler.getExecutor(BitcoinMain.get()));
+    }
+
+    @Test
+    public void tasksOfCoinRunInOrder() throws Exception {
+        Executor executor = SyncScheduler.getExecutor(LitecoinMain.get());
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            final int task = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(task);
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void coinsRunInParallel() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch otherCoinDone = new CountDownLatch(1);
+
+        // A slow task of one coin must not block the tasks of another coin
+        SyncScheduler.getExecutor(BitcoinMain.get()).execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    otherCoinDone.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignore) { }
+                blocked.countDown();
+            }
+        });
+        SyncScheduler.getExecutor(DogecoinMain.get()).execute(new Runnable() {
+            @Override
+            public void run() {
+                otherCoinDone.countDown();
+            }
+        });
+
+        assertTrue(otherCoinDone.await(5, TimeUnit.SECONDS));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+    }
+}
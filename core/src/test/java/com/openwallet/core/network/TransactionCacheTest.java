@@ -0,0 +1,160 @@
+package com.openwallet.core.network;
+
+import com.google.common.io.Files;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author John L. Jegutanis
+ */
+public class TransactionCacheTest {
+    File dir;
+    File file;
+
+    @Before
+    public void setup() {
+        dir = Files.createTempDir();
+        file = new File(new File(dir, "BTC"), "transactions.cache");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = file.getParentFile().listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        file.getParentFile().delete();
+        dir.delete();
+    }
+
+    private static byte[] tx(int seed, int size) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) seed);
+        return bytes;
+    }
+
+    private static Sha256Hash hash(byte[] tx) {
+        return Sha256Hash.createDouble(tx);
+    }
+
+    @Test
+    public void putAndGet() throws IOException {
+        TransactionCache cache = new TransactionCache(file, 1000);
+        byte[] tx1 = tx(1, 100);
+        byte[] tx2 = tx(2, 200);
+        cache.put(hash(tx1), tx1);
+        cache.put(hash(tx2), tx2);
+
+        assertEquals(2, cache.size());
+        assertEquals(300, cache.getSizeInBytes());
+        assertArrayEquals(tx1, cache.get(hash(tx1)));
+        assertArrayEquals(tx2, cache.get(hash(tx2)));
+        assertNull(cache.get(hash(tx(3, 10))));
+
+        cache.remove(hash(tx1));
+        assertNull(cache.get(hash(tx1)));
+        assertEquals(200, cache.getSizeInBytes());
+        cache.close();
+    }
+
+    @Test
+    public void reload() throws IOException {
+        TransactionCache cache = new TransactionCache(file, 1000);
+        byte[] tx1 = tx(1, 100);
+        byte[] tx2 = tx(2, 200);
+        cache.put(hash(tx1), tx1);
+        cache.put(hash(tx2), tx2);
+        cache.close();
+
+        cache = new TransactionCache(file, 1000);
+        assertEquals(2, cache.size());
+        assertArrayEquals(tx1, cache.get(hash(tx1)));
+        assertArrayEquals(tx2, cache.get(hash(tx2)));
+        cache.close();
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        TransactionCache cache = new TransactionCache(file, 1000);
+        byte[] tx1 = tx(1, 400);
+        byte[] tx2 = tx(2, 400);
+        byte[] tx3 = tx(3, 400);
+        cache.put(hash(tx1), tx1);
+        cache.put(hash(tx2), tx2);
+        // Use the first so that the second is the least recently used
+        cache.get(hash(tx1));
+        cache.put(hash(tx3), tx3);
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains(hash(tx1)));
+        assertFalse(cache.contains(hash(tx2)));
+        assertTrue(cache.contains(hash(tx3)));
+        assertTrue(cache.getSizeInBytes() <= 1000);
+
+        // Too big to cache
+        byte[] big = tx(4, 1001);
+        cache.put(hash(big), big);
+        assertFalse(cache.contains(hash(big)));
+        cache.close();
+    }
+
+    @Test
+    public void compact() throws IOException {
+        TransactionCache cache = new TransactionCache(file, 1000);
+        byte[] last = null;
+        for (int i = 0; i < 20; i++) {
+            last = tx(i, 300);
+            cache.put(hash(last), last);
+        }
+        // The file never grows much more than the maximum size
+        assertTrue(cache.getFileLength() <= 2 * 1000 + 300 + 36);
+        assertEquals(cache.getFileLength(), file.length());
+        assertArrayEquals(last, cache.get(hash(last)));
+        int size = cache.size();
+        cache.close();
+
+        cache = new TransactionCache(file, 1000);
+        assertEquals(size, cache.size());
+        assertArrayEquals(last, cache.get(hash(last)));
+        cache.close();
+    }
+
+    @Test
+    public void truncatedFile() throws IOException {
+        TransactionCache cache = new TransactionCache(file, 1000);
+        byte[] tx1 = tx(1, 100);
+        byte[] tx2 = tx(2, 200);
+        cache.put(hash(tx1), tx1);
+        cache.put(hash(tx2), tx2);
+        cache.close();
+
+        // Simulate a partially written record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 50);
+        raf.close();
+
+        cache = new TransactionCache(file, 1000);
+        assertEquals(1, cache.size());
+        assertArrayEquals(tx1, cache.get(hash(tx1)));
+        assertEquals(136, file.length());
+
+        // Can continue appending
+        cache.put(hash(tx2), tx2);
+        assertArrayEquals(tx2, cache.get(hash(tx2)));
+        cache.close();
+    }
+}
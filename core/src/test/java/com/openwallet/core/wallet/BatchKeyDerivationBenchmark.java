@@ -0,0 +1,42 @@
+package com.openwallet.core.wallet;
+
+import com.openwallet.core.coins.CoinID;
+import com.openwallet.core.coins.CoinType;
+
+import java.util.List;
+
+/**
+ * Measures the time to create the accounts of many coins with the keys derived in one thread and
+ * then in parallel. Not a unit test, run it with the test classpath:
+ *
+ * java com.openwallet.core.wallet.BatchKeyDerivationBenchmark [accounts] [rounds]
+ *
+ * @author John L. Jegutanis
+ */
+public class BatchKeyDerivationBenchmark {
+    public static void main(String[] args) throws Exception {
+        int numAccounts = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        List<CoinType> coins = CoinID.getSupportedCoins();
+        coins = coins.subList(0, Math.min(numAccounts, coins.size()));
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        // Warm up the JIT
+        createAccounts(coins, processors);
+
+        for (int i = 0; i < rounds; i++) {
+            long serial = createAccounts(coins, 1);
+            long parallel = createAccounts(coins, processors);
+            System.out.printf("%d accounts: serial %d ms, parallel %d ms with %d threads, %.2fx%n",
+                    coins.size(), serial, parallel, processors, (double) serial / parallel);
+        }
+    }
+
+    private static long createAccounts(List<CoinType> coins, int threads) throws Exception {
+        BatchKeyDerivation.setParallelism(threads);
+        Wallet wallet = new Wallet(Wallet.generateMnemonic(128));
+        long start = System.nanoTime();
+        wallet.createAccounts(coins, true, null);
+        return (System.nanoTime() - start) / 1000000;
+    }
+}
@@ -0,0 +1,91 @@
+package com.openwallet.core.wallet;
+
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.crypto.HDKeyDerivation;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author John L. Jegutanis
+ */
+public class BatchKeyDerivationTest {
+    final DeterministicKey parent = HDKeyDerivation.deriveChildKey(
+            HDKeyDerivation.createMasterPrivateKey(new byte[32]), 0);
+
+    @After
+    public void tearDown() {
+        BatchKeyDerivation.setParallelism(BatchKeyDerivation.DEFAULT_PARALLELISM);
+    }
+
+    private void checkSameAsSerial(int firstChild, int count) {
+        checkSameAsSerial(parent, firstChild, count,
+                BatchKeyDerivation.deriveChildren(parent, firstChild, count));
+    }
+
+    private static void checkSameAsSerial(DeterministicKey parent, int firstChild, int count,
+                                          List<DeterministicKey> keys) {
+        assertEquals(count, keys.size());
+        int nextChild = firstChild;
+        for (DeterministicKey key : keys) {
+            DeterministicKey expected = HDKeyDerivation.deriveThisOrNextChildKey(parent, nextChild);
+            assertEquals(expected.getPath(), key.getPath());
+            assertEquals(expected.getPubKeyPoint(), key.getPubKeyPoint());
+            assertEquals(parent, key.getParent());
+            assertTrue(key.isPubKeyOnly());
+            nextChild = expected.getChildNumber().num() + 1;
+        }
+    }
+
+    @Test
+    public void sameAsSerialDerivation() {
+        // Use several threads even on a single processor
+        BatchKeyDerivation.setParallelism(Integer.MAX_VALUE);
+        checkSameAsSerial(0, 0);
+        checkSameAsSerial(0, 1);
+        checkSameAsSerial(5, BatchKeyDerivation.MIN_KEYS_PER_THREAD * 2 + 3);
+        checkSameAsSerial(20, 100);
+    }
+
+    @Test
+    public void batchOfManyParents() {
+        BatchKeyDerivation.setParallelism(Integer.MAX_VALUE);
+        final int[] counts = {0, 3, BatchKeyDerivation.MIN_KEYS_PER_THREAD + 1, 40, 7};
+        final List<DeterministicKey> parents = new ArrayList<>();
+        final List<List<BatchKeyDerivation.Range>> derived = new ArrayList<>();
+        BatchKeyDerivation.Listener listener = new BatchKeyDerivation.Listener() {
+            @Override
+            public void onKeysDerived(List<BatchKeyDerivation.Range> ranges) {
+                derived.add(ranges);
+            }
+        };
+        BatchKeyDerivation batch = new BatchKeyDerivation();
+        for (int i = 0; i < counts.length; i++) {
+            parents.add(HDKeyDerivation.deriveChildKey(parent, i));
+            batch.add(parents.get(i), i * 10, counts[i], listener);
+        }
+        batch.derive();
+
+        // The listener gets all its ranges at once, in the order they were added
+        assertEquals(1, derived.size());
+        List<BatchKeyDerivation.Range> ranges = derived.get(0);
+        assertEquals(counts.length, ranges.size());
+        for (int i = 0; i < counts.length; i++) {
+            BatchKeyDerivation.Range range = ranges.get(i);
+            assertEquals(parents.get(i), range.parent);
+            assertEquals(i * 10, range.firstChild);
+            checkSameAsSerial(range.parent, range.firstChild, counts[i], range.getKeys());
+        }
+    }
+
+    @Test
+    public void singleThread() {
+        BatchKeyDerivation.setParallelism(1);
+        checkSameAsSerial(0, 50);
+    }
+}
@@ -0,0 +1,86 @@
+package com.openwallet.core.wallet;
+
+import org.bitcoinj.core.ECKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author John L. Jegutanis
+ */
+public class KeyIndexTest {
+    Random random;
+    KeyIndex index;
+
+    @Before
+    public void setup() {
+        random = new Random(1);
+        index = new KeyIndex();
+    }
+
+    private byte[] newHash() {
+        byte[] hash = new byte[20];
+        random.nextBytes(hash);
+        return hash;
+    }
+
+    @Test
+    public void putGetRemove() {
+        ECKey key = new ECKey();
+        byte[] hash = key.getPubKeyHash();
+
+        assertNull(index.put(hash, key));
+        assertEquals(1, index.size());
+        // Found with a different array of the same bytes
+        assertSame(key, index.get(hash.clone()));
+        assertTrue(index.containsKey(hash));
+        assertFalse(index.containsKey(key.getPubKey()));
+
+        assertSame(key, index.remove(hash.clone()));
+        assertNull(index.remove(hash));
+        assertNull(index.get(hash));
+        assertTrue(index.isEmpty());
+    }
+
+    @Test
+    public void sameAsMap() {
+        ECKey[] values = {new ECKey(), new ECKey(), new ECKey()};
+        Map<ByteBuffer, ECKey> expected = new HashMap<>();
+        List<byte[]> hashes = new ArrayList<>();
+
+        for (int i = 0; i < 10000; i++) {
+            if (hashes.isEmpty() || random.nextInt(3) != 0) {
+                // Replace some of the existing values
+                byte[] hash = hashes.isEmpty() || random.nextBoolean() ?
+                        newHash() : hashes.get(random.nextInt(hashes.size()));
+                ECKey value = values[random.nextInt(values.length)];
+                ECKey previous = expected.put(ByteBuffer.wrap(hash), value);
+                assertSame(previous, index.put(hash, value));
+                if (previous == null) hashes.add(hash);
+            } else {
+                byte[] hash = hashes.remove(random.nextInt(hashes.size()));
+                assertSame(expected.remove(ByteBuffer.wrap(hash)), index.remove(hash));
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        for (Map.Entry<ByteBuffer, ECKey> entry : expected.entrySet()) {
+            assertSame(entry.getValue(), index.get(entry.getKey().array()));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertNull(index.get(newHash()));
+        }
+    }
+}
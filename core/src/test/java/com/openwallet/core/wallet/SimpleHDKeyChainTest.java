@@ -152,6 +152,30 @@ public class SimpleHDKeyChainTest {
         assertEquals(1, listenerKeys.get(0).size());  // 1 key.
     }
 
+    @Test
+    public void batchLookAheadEvents() throws Exception {
+        final List<List<ECKey>> listenerKeys = Lists.newArrayList();
+        chain.addEventListener(new AbstractKeyChainEventListener() {
+            @Override
+            public void onKeysAdded(List<ECKey> keys) {
+                listenerKeys.add(keys);
+            }
+        }, Threading.SAME_THREAD);
+        chain.setLookaheadSize(5);
+
+        BatchKeyDerivation batch = new BatchKeyDerivation();
+        chain.maybeLookAhead(batch);
+        assertEquals(0, listenerKeys.size());
+        batch.derive();
+        // The keys of both paths are added in 1 event, like in maybeLookAhead()
+        assertEquals(1, listenerKeys.size());
+        assertEquals(12, listenerKeys.get(0).size());
+        listenerKeys.clear();
+
+        chain.maybeLookAhead();
+        assertEquals(0, listenerKeys.size());
+    }
+
     @Test
     public void serializeUnencryptedNormal() throws UnreadableWalletException {
         serializeUnencrypted(chain, DETERMINISTIC_WALLET_SERIALIZATION_TXT_MASTER_KEY);
@@ -203,6 +227,67 @@ public class SimpleHDKeyChainTest {
         assertEquals(oldLookaheadSize, keyChain.getLookaheadSize());
     }
 
+    @Test
+    public void serializeLookaheadDerivedLazily() throws UnreadableWalletException {
+        // Only the issued key is derived, the lookahead zone is not
+        DeterministicKey key1 = chain.getKey(KeyChain.KeyPurpose.RECEIVE_FUNDS);
+        DeterministicKey lastKey = getExternalKey(chain.getLookaheadSize());
+
+        chain = SimpleHDKeyChain.fromProtobuf(chain.toProtobuf());
+        // The saved keys are restored as is and the missing ones are not derived yet
+        assertEquals(key1, chain.findKeyFromPubHash(key1.getPubKeyHash()));
+        assertNull(chain.findKeyFromPubHash(lastKey.getPubKeyHash()));
+
+        chain.maybeLookAhead();
+        assertEquals(lastKey.getPubKeyPoint(),
+                chain.findKeyFromPubHash(lastKey.getPubKeyHash()).getPubKeyPoint());
+    }
+
+    @Test
+    public void discoveryLookahead() {
+        final List<List<ECKey>> listenerKeys = Lists.newArrayList();
+        chain.addEventListener(new AbstractKeyChainEventListener() {
+            @Override
+            public void onKeysAdded(List<ECKey> keys) {
+                listenerKeys.add(keys);
+            }
+        }, Threading.SAME_THREAD);
+        assertEquals(10, chain.getActiveKeys().size() / 2);
+        listenerKeys.clear();
+
+        // Keys found at the end of the lookahead zone double it
+        List<byte[]> used = Lists.newArrayList();
+        for (DeterministicKey key : chain.getActiveKeys()) {
+            if (chain.isExternal(key) && key.getChildNumber().num() >= 5) used.add(key.getPubKeyHash());
+        }
+        assertEquals(5, chain.markPubHashesAsUsed(used));
+        assertEquals(20, chain.getDiscoveryLookaheadSize(KeyChain.KeyPurpose.RECEIVE_FUNDS));
+        assertEquals(10, chain.getNumIssuedExternalKeys());
+        // Looked ahead once for all the keys
+        assertEquals(1, listenerKeys.size());
+        int external = 0;
+        for (DeterministicKey key : chain.getActiveKeys()) {
+            if (chain.isExternal(key)) external++;
+        }
+        assertEquals(10 + 20, external);
+        // The change keys are not used, so their zone does not change
+        assertEquals(10, chain.getDiscoveryLookaheadSize(KeyChain.KeyPurpose.CHANGE));
+
+        // Keys found close to the issued ones return it to the lookahead size
+        byte[] next = getExternalKey(10).getPubKeyHash();
+        assertEquals(1, chain.markPubHashesAsUsed(ImmutableList.of(next)));
+        assertEquals(10, chain.getDiscoveryLookaheadSize(KeyChain.KeyPurpose.RECEIVE_FUNDS));
+
+        // Unknown and already used keys do not change it
+        assertEquals(0, chain.markPubHashesAsUsed(ImmutableList.of(new byte[20])));
+        assertEquals(10, chain.getDiscoveryLookaheadSize(KeyChain.KeyPurpose.RECEIVE_FUNDS));
+    }
+
+    private DeterministicKey getExternalKey(int index) {
+        return new DeterministicHierarchy(masterKey).get(ImmutableList.of(
+                ChildNumber.ZERO_HARDENED, ChildNumber.ZERO, new ChildNumber(index)), false, true);
+    }
+
     private String protoToString(List<Protos.Key> keys) {
         StringBuilder sb = new StringBuilder();
         for (Protos.Key key : keys) {
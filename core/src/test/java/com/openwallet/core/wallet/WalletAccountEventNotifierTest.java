@@ -0,0 +1,114 @@
+package com.openwallet.core.wallet;
+
+import com.openwallet.core.coins.BitcoinMain;
+import com.openwallet.core.coins.CoinType;
+import com.openwallet.core.coins.Value;
+
+import org.bitcoinj.crypto.HDKeyDerivation;
+import org.bitcoinj.utils.ListenerRegistration;
+import org.bitcoinj.utils.Threading;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author John L. Jegutanis
+ */
+public class WalletAccountEventNotifierTest {
+    final CoinType type = BitcoinMain.get();
+    List<ListenerRegistration<WalletAccountEventListener>> listeners;
+    WalletAccount account;
+    RecordingListener listener;
+
+    @Before
+    public void setup() {
+        listeners = new CopyOnWriteArrayList<>();
+        account = new WalletPocketHD(HDKeyDerivation.createMasterPrivateKey(new byte[32]), type, null, null);
+        listener = new RecordingListener();
+        listeners.add(new ListenerRegistration<WalletAccountEventListener>(listener, Threading.SAME_THREAD));
+    }
+
+    @Test
+    public void coalesceEvents() throws Exception {
+        WalletAccountEventNotifier notifier = new WalletAccountEventNotifier(account, listeners, 100);
+
+        for (int i = 1; i <= 1000; i++) {
+            notifier.notifyNewBalance(type.value(i));
+            notifier.notifyNewBlock();
+        }
+        notifier.notifyConnectivity(WalletConnectivityStatus.CONNECTED);
+
+        assertTrue(listener.walletChanged.await(5, TimeUnit.SECONDS));
+        // Wait for any extra delivery
+        Thread.sleep(300);
+
+        // Only the latest state is delivered once
+        assertEquals(1, listener.balances.size());
+        assertEquals(type.value(1000), listener.balances.get(0));
+        assertEquals(1, listener.blocks);
+        assertEquals(1, listener.connectivityChanges);
+        assertEquals(1, listener.walletChanges);
+    }
+
+    @Test
+    public void laterEventsAreDelivered() throws Exception {
+        WalletAccountEventNotifier notifier = new WalletAccountEventNotifier(account, listeners, 10);
+
+        notifier.notifyNewBalance(type.value(1));
+        assertTrue(listener.walletChanged.await(5, TimeUnit.SECONDS));
+
+        listener.walletChanged = new CountDownLatch(1);
+        notifier.notifyNewBalance(type.value(2));
+        assertTrue(listener.walletChanged.await(5, TimeUnit.SECONDS));
+
+        assertEquals(2, listener.balances.size());
+        assertEquals(type.value(2), listener.balances.get(1));
+        assertEquals(0, listener.blocks);
+    }
+
+    static class RecordingListener implements WalletAccountEventListener {
+        final List<Value> balances = new ArrayList<>();
+        volatile int blocks;
+        volatile int connectivityChanges;
+        volatile int walletChanges;
+        volatile CountDownLatch walletChanged = new CountDownLatch(1);
+
+        @Override
+        public void onNewBalance(Value newBalance) {
+            balances.add(newBalance);
+        }
+
+        @Override
+        public void onNewBlock(WalletAccount pocket) {
+            blocks++;
+        }
+
+        @Override
+        public void onTransactionConfidenceChanged(WalletAccount pocket, AbstractTransaction tx) { }
+
+        @Override
+        public void onTransactionBroadcastFailure(WalletAccount pocket, AbstractTransaction tx) { }
+
+        @Override
+        public void onTransactionBroadcastSuccess(WalletAccount pocket, AbstractTransaction tx) { }
+
+        @Override
+        public void onWalletChanged(WalletAccount pocket) {
+            walletChanges++;
+            walletChanged.countDown();
+        }
+
+        @Override
+        public void onConnectivityStatus(WalletConnectivityStatus connectivityStatus) {
+            connectivityChanges++;
+        }
+    }
+}
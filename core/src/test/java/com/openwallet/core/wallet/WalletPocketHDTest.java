@@ -12,6 +12,8 @@ import com.openwallet.core.exceptions.KeyIsEncryptedException;
 import com.openwallet.core.exceptions.MissingPrivateKeyException;
 import com.openwallet.core.network.AddressStatus;
 import com.openwallet.core.network.BlockHeader;
+import com.openwallet.core.network.ConnectionStats;
+import com.openwallet.core.network.LatencyHistogram;
 import com.openwallet.core.network.ServerClient.HistoryTx;
 import com.openwallet.core.network.ServerClient.UnspentTx;
 import com.openwallet.core.network.interfaces.ConnectionEventListener;
@@ -25,6 +27,7 @@ import com.openwallet.core.wallet.families.bitcoin.BitTransactionEventListener;
 import com.openwallet.core.wallet.families.bitcoin.OutPointOutput;
 import com.openwallet.core.wallet.families.bitcoin.TrimmedOutPoint;
 import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
 
 import org.bitcoinj.core.ChildMessage;
 import org.bitcoinj.core.Coin;
@@ -40,6 +43,8 @@ import org.bitcoinj.crypto.DeterministicKey;
 import org.bitcoinj.crypto.HDKeyDerivation;
 import org.bitcoinj.crypto.KeyCrypter;
 import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.script.ScriptBuilder;
 import org.bitcoinj.store.UnreadableWalletException;
 import org.bitcoinj.utils.BriefLogFormatter;
 import org.bitcoinj.wallet.DeterministicSeed;
@@ -63,6 +68,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -337,6 +345,21 @@ public class WalletPocketHDTest {
         assertFalse(pocket.isLoading());
     }
 
+    @Test
+    public void syncStats() throws Exception {
+        assertNull(pocket.getSyncStats().getConnectionStats());
+        pocket.onConnection(getBlockchainConnection(DOGE));
+
+        SyncStats stats = pocket.getSyncStats();
+        assertEquals(0, stats.getAddressesPendingSubscription());
+        assertEquals(0, stats.getStatusPendingUpdates());
+        assertEquals(0, stats.getFetchingTransactions());
+        assertEquals(0, stats.getOutOfOrderTransactions());
+        assertEquals(pocket.getTransactions().size(), stats.getTransactionsApplied());
+        assertTrue(stats.getTransactionsPerSecond() > 0);
+        assertNotNull(stats.getConnectionStats());
+    }
+
     @Test
     public void fillTransactions() throws Exception {
         pocket.onConnection(getBlockchainConnection(DOGE));
@@ -352,15 +375,19 @@ public class WalletPocketHDTest {
         List<AbstractAddress> addressesToWatch = pocket.getAddressesToWatch();
         assertEquals(0, addressesToWatch.size());
 
-        // 18 external issued + 20 lookahead +  9 external issued + 20 lookahead
-        assertEquals(67, pocket.addressesStatus.size());
-        assertEquals(67, pocket.addressesSubscribed.size());
+        // The 18 external keys were found at once, so that lookahead zone doubled while restoring
+        assertEquals(40, pocket.keys.getDiscoveryLookaheadSize(KeyChain.KeyPurpose.RECEIVE_FUNDS));
+        assertEquals(20, pocket.keys.getDiscoveryLookaheadSize(KeyChain.KeyPurpose.CHANGE));
+
+        // 18 external issued + 40 lookahead +  9 internal issued + 20 lookahead
+        assertEquals(87, pocket.addressesStatus.size());
+        assertEquals(87, pocket.addressesSubscribed.size());
 
         BitAddress receiveAddr = pocket.getReceiveAddress();
         // This key is not issued
         assertEquals(18, pocket.keys.getNumIssuedExternalKeys());
-        assertEquals(67, pocket.addressesStatus.size());
-        assertEquals(67, pocket.addressesSubscribed.size());
+        assertEquals(87, pocket.addressesStatus.size());
+        assertEquals(87, pocket.addressesSubscribed.size());
 
         DeterministicKey key = pocket.keys.findKeyFromPubHash(receiveAddr.getHash160());
         assertNotNull(key);
@@ -370,6 +397,127 @@ public class WalletPocketHDTest {
         assertEquals(11000000000L, pocket.getBalance().value);
     }
 
+    @Test
+    public void spendCandidates() throws Exception {
+        pocket.onConnection(getBlockchainConnection(DOGE));
+
+        List<OutPointOutput> candidates = pocket.getSpendCandidates(false, false);
+        assertEquals(pocket.getUnspentOutputs(false).size(), candidates.size());
+        ArrayList<OutPointOutput> sorted = new ArrayList<>(candidates);
+        WalletCoinSelector.sortOutputs(sorted);
+        assertEquals(sorted, candidates);
+
+        // Kept until the outputs or the height change, not for an address status
+        assertSame(candidates, pocket.getSpendCandidates(false, false));
+        pocket.commitAddressStatus(new AddressStatus(pocket.getReceiveAddress(), null));
+        assertSame(candidates, pocket.getSpendCandidates(false, false));
+        pocket.onNewBlock(new BlockHeader(DOGE, blockTimestamp, blockHeight + 1));
+        assertNotSame(candidates, pocket.getSpendCandidates(false, false));
+
+        // Selecting from the sorted candidates is the same as sorting them
+        WalletCoinSelector selector = new WalletCoinSelector();
+        Coin target = DOGE.oneCoin().toCoin().multiply(15);
+        candidates = pocket.getSpendCandidates(false, false);
+        assertEquals(selector.select(target, candidates).gathered,
+                selector.selectSorted(target, candidates).gathered);
+    }
+
+    @Test
+    public void blockDepth() throws Exception {
+        pocket.onConnection(getBlockchainConnection(DOGE));
+
+        // All the transactions are deep, they are not updated on every block
+        assertTrue(pocket.shallowTransactions.isEmpty());
+        Sha256Hash deepTxHash = new Sha256Hash("ef74da273e8a77e2d60b707414fb7e0ccb35c7b1b936800a49fe953195b1799f");
+        assertEquals(blockHeight - 160267 + 1, pocket.getTransaction(deepTxHash).getDepthInBlocks());
+
+        // A new confirmed transaction is updated until it is deep enough
+        Transaction tx = new Transaction(DOGE);
+        tx.addOutput(DOGE.oneCoin().toCoin(), pocket.getReceiveAddress());
+        tx.getConfidence().setAppearedAtChainHeight(blockHeight);
+        pocket.addNewTransactionIfNeeded(tx);
+        assertTrue(pocket.shallowTransactions.contains(tx.getHash()));
+
+        pocket.onNewBlock(new BlockHeader(DOGE, blockTimestamp, blockHeight + 1));
+        assertEquals(2, pocket.getTransaction(tx.getHash()).getDepthInBlocks());
+        assertTrue(pocket.shallowTransactions.contains(tx.getHash()));
+
+        pocket.onNewBlock(new BlockHeader(DOGE, blockTimestamp, blockHeight + 10));
+        assertFalse(pocket.shallowTransactions.contains(tx.getHash()));
+        assertEquals(11, pocket.getTransaction(tx.getHash()).getDepthInBlocks());
+
+        // Deep transactions are updated when the snapshot is published
+        assertEquals(blockHeight + 10 - 160267 + 1, pocket.getTransaction(deepTxHash).getDepthInBlocks());
+    }
+
+    @Test
+    public void snapshotReads() throws Exception {
+        pocket.onConnection(getBlockchainConnection(DOGE));
+
+        // Without changes the getters return the same snapshot
+        long version = pocket.getSnapshotVersion();
+        Map<Sha256Hash, BitTransaction> txs = pocket.getTransactions();
+        assertSame(txs, pocket.getTransactions());
+        assertEquals(version, pocket.getSnapshotVersion());
+        assertEquals(11000000000L, pocket.getBalance().value);
+
+        // A new transaction creates a new snapshot
+        Transaction tx = new Transaction(DOGE);
+        tx.addOutput(DOGE.oneCoin().toCoin(), pocket.getReceiveAddress());
+        tx.getConfidence().setSource(Source.SELF);
+        pocket.addNewTransactionIfNeeded(tx);
+        assertNotEquals(version, pocket.getSnapshotVersion());
+        assertEquals(txs.size() + 1, pocket.getTransactions().size());
+        assertTrue(pocket.getPendingTransactions().containsKey(tx.getHash()));
+        assertEquals(11000000000L + DOGE.oneCoin().value, pocket.getBalance().value);
+
+        // A new block publishes a snapshot that shares the unchanged transactions
+        txs = pocket.getTransactions();
+        long valuesVersion = pocket.getValuesVersion();
+        pocket.onNewBlock(new BlockHeader(DOGE, blockTimestamp, blockHeight + 5));
+        assertSame(txs, pocket.getTransactions());
+        // The values of the transactions are not computed again for a new block
+        assertEquals(valuesVersion, pocket.getValuesVersion());
+        assertEquals(DOGE.oneCoin(), pocket.getTransaction(tx.getHash()).getValue(pocket));
+        // The deep transactions get their depth when the snapshot is published
+        BitTransaction deepTx = txs.get(new Sha256Hash("ef74da273e8a77e2d60b707414fb7e0ccb35c7b1b936800a49fe953195b1799f"));
+        assertEquals(blockHeight + 5 - 160267 + 1, deepTx.getDepthInBlocks());
+    }
+
+    @Test
+    public void outOfOrderTransactionChain() throws Exception {
+        BitAddress address = pocket.getReceiveAddress();
+        ECKey key = pocket.keys.findKeyFromPubHash(address.getHash160());
+
+        // A chain of transactions where each one spends the previous one
+        List<Transaction> chain = new ArrayList<>();
+        Transaction previous = new Transaction(DOGE);
+        previous.addOutput(DOGE.oneCoin().toCoin(), address);
+        chain.add(previous);
+        for (int i = 1; i < 50; i++) {
+            Transaction tx = new Transaction(DOGE);
+            tx.addInput(previous.getHash(), 0,
+                    ScriptBuilder.createInputScript(TransactionSignature.dummy(), key));
+            tx.addOutput(DOGE.oneCoin().toCoin(), address);
+            chain.add(tx);
+            previous = tx;
+        }
+
+        // Receive them in reverse order, all of them wait for their parent
+        for (int i = chain.size() - 1; i > 0; i--) {
+            pocket.addNewTransactionIfNeeded(chain.get(i));
+        }
+        assertEquals(0, pocket.getTransactions().size());
+        assertEquals(49, pocket.outOfOrderTransactions.size());
+        assertEquals(49, pocket.waitingTransactions.size());
+
+        // The first transaction releases the whole chain
+        pocket.addNewTransactionIfNeeded(chain.get(0));
+        assertEquals(50, pocket.getTransactions().size());
+        assertTrue(pocket.outOfOrderTransactions.isEmpty());
+        assertTrue(pocket.waitingTransactions.isEmpty());
+    }
+
     @Test
     public void serializeTransactionsBtc() throws Exception, Bip44KeyLookAheadExceededException {
         WalletPocketHD account = new WalletPocketHD(rootKey, BTC, null, null);
@@ -571,10 +719,15 @@ public class WalletPocketHDTest {
         assertAllKeysDecrypted(newPocket);
     }
 
-    private void checkUnspentOutputs(Map<TrimmedOutPoint, OutPointOutput> expectedUtxoSet, WalletPocketHD pocket) {
+    private void checkUnspentOutputs(Map<TrimmedOutPoint, OutPointOutput> expectedUtxoSet, WalletPocketHD pocket)
+            throws AddressMalformedException {
         Map<TrimmedOutPoint, OutPointOutput> pocketUtxoSet = pocket.getUnspentOutputs(false);
         for (OutPointOutput utxo : expectedUtxoSet.values()) {
             assertEquals(utxo, pocketUtxoSet.get(utxo.getOutPoint()));
+            // Every unspent output must be indexed by its address
+            BitAddress address = BitAddress.from(pocket.getCoinType(), utxo.getScriptPubKey());
+            int scriptId = pocket.unspentOutputs.getScriptId(utxo.getOutPoint());
+            assertTrue(Ints.contains(pocket.unspentScriptIdsByAddress.get(address), scriptId));
         }
     }
 
@@ -740,13 +893,15 @@ public class WalletPocketHDTest {
 
         @Override
         public void subscribeToAddresses(List<AbstractAddress> addresses, TransactionEventListener<BitTransaction> listener) {
+            List<AddressStatus> replies = new ArrayList<>(addresses.size());
             for (AbstractAddress a : addresses) {
                 AddressStatus status = statuses.get(a);
                 if (status == null) {
                     status = new AddressStatus(a, null);
                 }
-                listener.onAddressStatusUpdate(status);
+                replies.add(status);
             }
+            listener.onAddressStatusesUpdate(replies);
         }
 
         @Override
@@ -773,6 +928,18 @@ public class WalletPocketHDTest {
             listener.onTransactionUpdate(tx);
         }
 
+        @Override
+        public void getTransactions(List<Sha256Hash> txHashes, TransactionEventListener<BitTransaction> listener) {
+            for (Sha256Hash txHash : txHashes) {
+                getTransaction(txHash, listener);
+            }
+        }
+
+        @Override
+        public ConnectionStats getConnectionStats() {
+            return new ConnectionStats(0, new HashMap<String, LatencyHistogram>());
+        }
+
         @Override
         public void broadcastTx(BitTransaction tx, TransactionEventListener<BitTransaction> listener) {
 //            List<AddressStatus> newStatuses = new ArrayList<AddressStatus>();
@@ -0,0 +1,192 @@
+package com.openwallet.core.wallet.families.bitcoin;
+
+import com.openwallet.core.coins.BitcoinMain;
+import com.openwallet.core.coins.CoinType;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author John L. Jegutanis
+ */
+public class UnspentOutputTableTest {
+    final CoinType type = BitcoinMain.get();
+    final byte[][] scripts = {{0x51}, {0x52}, {0x53}};
+    Random random;
+    UnspentOutputTable table;
+
+    @Before
+    public void setup() {
+        random = new Random(1);
+        table = new UnspentOutputTable(type);
+    }
+
+    private OutPointOutput newUtxo(Sha256Hash txHash, int index) {
+        byte[] script = scripts[random.nextInt(scripts.length)];
+        TrimmedOutput output = new TrimmedOutput(type, random.nextInt(1000000), txHash, index, script);
+        return new OutPointOutput(output, random.nextBoolean());
+    }
+
+    private Sha256Hash newHash() {
+        byte[] hash = new byte[32];
+        random.nextBytes(hash);
+        return new Sha256Hash(hash);
+    }
+
+    @Test
+    public void putGetRemove() {
+        Sha256Hash txHash = newHash();
+        OutPointOutput utxo = newUtxo(txHash, 1);
+        utxo.setAppearedAtChainHeight(100);
+        utxo.setDepthInBlocks(5);
+
+        assertNull(table.put(utxo));
+        assertEquals(1, table.size());
+        assertTrue(table.containsKey(utxo.getOutPoint()));
+        assertFalse(table.containsKey(new TrimmedOutPoint(type, 0, txHash)));
+
+        OutPointOutput stored = table.get(utxo.getOutPoint());
+        assertEquals(utxo, stored);
+        assertEquals(100, stored.getAppearedAtChainHeight());
+        assertEquals(5, stored.getDepthInBlocks());
+
+        assertEquals(utxo, table.remove(utxo.getOutPoint()));
+        assertNull(table.remove(utxo.getOutPoint()));
+        assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void sameAsMap() {
+        Map<TrimmedOutPoint, OutPointOutput> expected = new HashMap<>();
+        List<TrimmedOutPoint> outPoints = new ArrayList<>();
+
+        for (int i = 0; i < 10000; i++) {
+            if (outPoints.isEmpty() || random.nextInt(3) != 0) {
+                // Several outputs for some transactions
+                Sha256Hash txHash = outPoints.isEmpty() || random.nextBoolean() ?
+                        newHash() : outPoints.get(random.nextInt(outPoints.size())).getHash();
+                OutPointOutput utxo = newUtxo(txHash, random.nextInt(4));
+                OutPointOutput previous = expected.put(utxo.getOutPoint(), utxo);
+                assertEquals(previous, table.put(utxo));
+                if (previous == null) outPoints.add(utxo.getOutPoint());
+            } else {
+                TrimmedOutPoint outPoint = outPoints.remove(random.nextInt(outPoints.size()));
+                assertEquals(expected.remove(outPoint), table.remove(outPoint));
+            }
+        }
+
+        assertEquals(expected.size(), table.size());
+        assertEquals(expected, table.toMap());
+        int scriptOutputs = 0;
+        for (byte[] script : scripts) {
+            scriptOutputs += table.getScriptOutputCount(table.getScriptId(script));
+        }
+        assertEquals(table.size(), scriptOutputs);
+        for (OutPointOutput utxo : table.values()) {
+            assertEquals(expected.get(utxo.getOutPoint()), utxo);
+        }
+    }
+
+    @Test
+    public void blockDepth() {
+        OutPointOutput confirmed = newUtxo(newHash(), 0);
+        OutPointOutput unconfirmed = newUtxo(newHash(), 0);
+        table.put(confirmed);
+        table.put(unconfirmed);
+
+        table.setAppearedAtChainHeight(confirmed.getOutPoint(), 100);
+        assertEquals(1, table.get(confirmed.getOutPoint()).getDepthInBlocks());
+
+        table.updateBlockDepth(109);
+        assertEquals(10, table.get(confirmed.getOutPoint()).getDepthInBlocks());
+        assertEquals(-1, table.get(unconfirmed.getOutPoint()).getAppearedAtChainHeight());
+        assertEquals(0, table.get(unconfirmed.getOutPoint()).getDepthInBlocks());
+
+        table.setDepthInBlocks(unconfirmed.getOutPoint(), 3);
+        assertEquals(3, table.get(unconfirmed.getOutPoint()).getDepthInBlocks());
+    }
+
+    @Test
+    public void retainScriptOutputs() {
+        List<OutPointOutput> utxos = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            OutPointOutput utxo = newUtxo(newHash(), 0);
+            table.put(utxo);
+            utxos.add(utxo);
+        }
+        int scriptId = table.getScriptId(scripts[0]);
+        int[] keepRows = new int[utxos.size()];
+        int keepCount = 0;
+        long expectedRemoved = 0;
+        int expectedCount = 0;
+        for (OutPointOutput utxo : utxos) {
+            if (table.getScriptId(utxo.getOutPoint()) != scriptId) continue;
+            expectedCount++;
+            if (random.nextBoolean()) {
+                keepRows[keepCount++] = table.getRow(utxo.getOutPoint());
+            } else {
+                expectedRemoved += utxo.getValueLong();
+            }
+        }
+        assertEquals(expectedCount, table.getScriptOutputCount(scriptId));
+
+        assertEquals(expectedRemoved, table.retainScriptOutputs(scriptId, keepRows, keepCount));
+        assertEquals(keepCount, table.getScriptOutputCount(scriptId));
+        int count = 0;
+        for (OutPointOutput utxo : utxos) {
+            OutPointOutput stored = table.get(utxo.getOutPoint());
+            if (stored != null) {
+                assertEquals(utxo, stored);
+                count++;
+            }
+        }
+        assertEquals(table.size(), count);
+        assertEquals(utxos.size() - expectedCount + keepCount, table.size());
+    }
+
+    @Test
+    public void outputsAreReused() {
+        OutPointOutput utxo = newUtxo(newHash(), 0);
+        table.put(utxo);
+        OutPointOutput stored = table.get(utxo.getOutPoint());
+        assertSame(stored, table.values().get(0));
+
+        // Changing the depth creates a new output, the one already read is not modified
+        int depth = stored.getDepthInBlocks();
+        table.setDepthInBlocks(utxo.getOutPoint(), 7);
+        OutPointOutput updated = table.get(utxo.getOutPoint());
+        assertNotSame(stored, updated);
+        assertEquals(7, updated.getDepthInBlocks());
+        assertEquals(depth, stored.getDepthInBlocks());
+        assertSame(updated, table.get(utxo.getOutPoint()));
+
+        // Replacing the output creates a new one
+        table.put(newUtxo(utxo.getTxHash(), 0));
+        assertNotSame(updated, table.get(utxo.getOutPoint()));
+    }
+
+    @Test
+    public void clear() {
+        for (int i = 0; i < 100; i++) table.put(newUtxo(newHash(), i));
+        table.clear();
+        assertTrue(table.isEmpty());
+        assertTrue(table.values().isEmpty());
+        OutPointOutput utxo = newUtxo(newHash(), 0);
+        table.put(utxo);
+        assertEquals(utxo, table.get(utxo.getOutPoint()));
+    }
+}
@@ -1,7 +1,9 @@
 package com.openwallet.stratumj;
 
 
+import com.openwallet.stratumj.messages.BaseMessage;
 import com.openwallet.stratumj.messages.CallMessage;
+import com.openwallet.stratumj.messages.MessageException;
 import com.openwallet.stratumj.messages.ResultMessage;
 import org.bitcoinj.utils.BriefLogFormatter;
 
@@ -14,10 +16,14 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.io.ByteArrayOutputStream;
+import org.junit.After;
+
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Arrays;
 import java.util.concurrent.*;
@@ -25,22 +31,16 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
-import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.anyInt;
-import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
-import static org.mockito.Mockito.doThrow;
-
 /**
  * @author John L. Jegutanis
  */
 public class CommunicationsTest {
 
+    private ServerSocket serverSocket;
     private Socket socket;
     private StratumClient client;
-    private ByteArrayOutputStream serverInput;
-    private PipedOutputStream serverOutput;
+    private BufferedReader serverInput;
+    private OutputStream serverOutput;
 
     public CommunicationsTest() {
 //        System.setProperty(org.slf4j.impl.SimpleLogger.DEFAULT_LOG_LEVEL_KEY, "TRACE");
@@ -49,29 +49,31 @@ public class CommunicationsTest {
 
     @Before
     public void setup() throws IOException {
-        socket = mock(Socket.class);
-
-        serverInput = new ByteArrayOutputStream();
-        serverOutput = new PipedOutputStream();
-        PipedInputStream pipedServerOutput = new PipedInputStream(serverOutput);
-        when(socket.getOutputStream()).thenReturn(serverInput);
-        when(socket.getInputStream()).thenReturn(pipedServerOutput);
-        when(socket.isConnected()).thenReturn(true);
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        serverSocket.setSoTimeout(5000);
+        client = new StratumClient("127.0.0.1", serverSocket.getLocalPort());
+    }
 
+    @After
+    public void tearDown() throws IOException {
+        client.stopAsync();
+        if (socket != null) socket.close();
+        serverSocket.close();
+    }
 
-        client = new StratumClient("not used", 1234) {
-            @Override
-            protected Socket createSocket() {
-                return CommunicationsTest.this.socket;
-            }
-        };
+    private void startAndAccept() throws IOException, TimeoutException {
+        client.startAsync();
+        socket = serverSocket.accept();
+        socket.setSoTimeout(5000);
+        serverInput = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        serverOutput = socket.getOutputStream();
+        client.awaitRunning(5, TimeUnit.SECONDS);
     }
 
     @Test
     public void testCallCommand() throws Exception {
 
-        client.startAsync();
-        client.awaitRunning(5, TimeUnit.SECONDS);
+        startAndAccept();
 
 
         CallMessage call = new CallMessage("blockchain.address.get_history",
@@ -79,7 +81,7 @@ public class CommunicationsTest {
         final ListenableFuture<ResultMessage> futureReply = client.call(call);
 
         // Check if server got the correct message
-        Assert.assertEquals(call.toString(), new String(serverInput.toByteArray()));
+        Assert.assertEquals(call.toString(), serverInput.readLine() + '\n');
 
         // Reply to the client
         String resultJson = "{\"id\": 0, \"result\": [{" +
@@ -102,12 +104,11 @@ public class CommunicationsTest {
         final AtomicBoolean success = new AtomicBoolean(false);
         final Thread testThread = Thread.currentThread();
 
-        serverInput = mock(ByteArrayOutputStream.class);
-        when(socket.getOutputStream()).thenReturn(serverInput);
-        doThrow(IOException.class).when(serverInput).write(anyInt());
+        startAndAccept();
 
-        client.startAsync();
-        client.awaitRunning(5, TimeUnit.SECONDS);
+        // Calls on a closed connection must fail
+        client.disconnect();
+        client.awaitTerminated(5, TimeUnit.SECONDS);
 
         CallMessage call = CallMessage.fromJson("{}");
         final ListenableFuture<ResultMessage> futureReply = client.call(call);
@@ -137,8 +138,7 @@ public class CommunicationsTest {
     @Test
     public void testSubscribeCommand() throws IOException, TimeoutException, ExecutionException, InterruptedException, JSONException {
 
-        client.startAsync();
-        client.awaitRunning(5, TimeUnit.SECONDS);
+        startAndAccept();
 
         final AtomicBoolean success = new AtomicBoolean(false);
         final Thread testThread = Thread.currentThread();
@@ -163,7 +163,7 @@ public class CommunicationsTest {
         });
 
         // Check if server got the correct message
-        Assert.assertEquals(call.toString(), new String(serverInput.toByteArray()));
+        Assert.assertEquals(call.toString(), serverInput.readLine() + '\n');
 
         // Result message
         String resultJson = "{\"id\": 0, \"result\":" +
@@ -190,4 +190,96 @@ public class CommunicationsTest {
 
         Assert.assertTrue(success.get());
     }
+
+    @Test
+    public void testErrorReply() throws Exception {
+        startAndAccept();
+
+        CallMessage call = new CallMessage("blockchain.transaction.get",
+                Arrays.asList("3aa2a5a9825ca767e092bcc19487aa13969eeb217fd0fba8492543bbb8c30954"));
+        ListenableFuture<ResultMessage> futureReply = client.call(call);
+        String request = serverInput.readLine();
+
+        // Old servers reply with the failed request instead of the id
+        BaseMessage error = new BaseMessage();
+        error.put("request", request);
+        error.put("error", "unknown transaction");
+        serverOutput.write(error.toString().getBytes());
+
+        try {
+            futureReply.get(3, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof MessageException);
+        }
+    }
+
+    @Test
+    public void testCallTimeout() throws Exception {
+        startAndAccept();
+        client.setCallTimeout(300, TimeUnit.MILLISECONDS);
+
+        CallMessage call = new CallMessage("blockchain.address.get_history",
+                Arrays.asList("mrx4EmF6zHXky3zDoeJ1K7KvYcuNn8Mmc4"));
+        ListenableFuture<ResultMessage> futureReply = client.call(call);
+        serverInput.readLine();
+
+        // The server never replies
+        try {
+            futureReply.get(3, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        // A late reply is ignored
+        ResultMessage lateReply = ResultMessage.fromJson("{\"id\": " + call.getId() + ", \"result\": []}");
+        serverOutput.write(lateReply.toString().getBytes());
+        Assert.assertTrue(client.isRunning());
+    }
+
+    @Test
+    public void testSubscriptionDispatch() throws Exception {
+        startAndAccept();
+
+        final CallMessage callA = new CallMessage("blockchain.address.subscribe",
+                Arrays.asList("mrx4EmF6zHXky3zDoeJ1K7KvYcuNn8Mmc4"));
+        final CallMessage callB = new CallMessage("blockchain.address.subscribe",
+                Arrays.asList("n2C1JYjrBCTyxyNzgN8Jpw9XN3GQDJ3WgU"));
+        final BlockingQueue<CallMessage> notificationsA = new LinkedBlockingQueue<>();
+        final BlockingQueue<CallMessage> notificationsB = new LinkedBlockingQueue<>();
+
+        StratumClient.SubscribeResultHandler handlerA = new StratumClient.SubscribeResultHandler() {
+            @Override
+            public void handle(CallMessage message) {
+                notificationsA.add(message);
+            }
+        };
+        StratumClient.SubscribeResultHandler handlerB = new StratumClient.SubscribeResultHandler() {
+            @Override
+            public void handle(CallMessage message) {
+                notificationsB.add(message);
+            }
+        };
+        client.subscribe(callA, handlerA);
+        // Subscribing twice with the same handler must not deliver notifications twice
+        client.subscribe(callA, handlerA);
+        client.subscribe(callB, handlerB);
+
+        CallMessage notificationA = CallMessage.fromJson("{\"id\": null, " +
+                "\"method\": \"blockchain.address.subscribe\", " +
+                "\"params\": [\"mrx4EmF6zHXky3zDoeJ1K7KvYcuNn8Mmc4\", \"status\"]}");
+        serverOutput.write(notificationA.toString().getBytes());
+
+        Assert.assertEquals(notificationA.toString(),
+                notificationsA.poll(3, TimeUnit.SECONDS).toString());
+        Assert.assertNull(notificationsA.poll(300, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(notificationsB.isEmpty());
+
+        // No more notifications after unsubscribing
+        client.unsubscribe(callA, handlerA);
+        serverOutput.write(notificationA.toString().getBytes());
+        Assert.assertNull(notificationsA.poll(300, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(notificationsB.isEmpty());
+    }
 }
@@ -0,0 +1,116 @@
+package com.openwallet.stratumj;
+
+import com.google.common.base.Ticker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author John L. Jegutanis
+ */
+public class HashedWheelTimerTest {
+    private long now;
+    private HashedWheelTimer timer;
+    private AtomicInteger expired;
+
+    private final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+            expired.incrementAndGet();
+        }
+    };
+
+    @Before
+    public void setup() {
+        now = 0;
+        expired = new AtomicInteger();
+        timer = new HashedWheelTimer(100, TimeUnit.MILLISECONDS, 8, new Ticker() {
+            @Override
+            public long read() {
+                return now;
+            }
+        });
+    }
+
+    private void advance(long millis) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+        timer.expireTimeouts();
+    }
+
+    @Test
+    public void expireAfterDeadline() {
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(task, 250, TimeUnit.MILLISECONDS);
+        assertEquals(1, timer.pendingTimeouts());
+
+        advance(200);
+        assertEquals(0, expired.get());
+        assertFalse(timeout.isExpired());
+
+        advance(100);
+        assertEquals(1, expired.get());
+        assertTrue(timeout.isExpired());
+        assertEquals(0, timer.pendingTimeouts());
+
+        // Never runs twice
+        advance(1000);
+        assertEquals(1, expired.get());
+    }
+
+    @Test
+    public void expireAfterSeveralRounds() {
+        // The wheel covers 800ms, this timeout needs more than two rounds
+        timer.newTimeout(task, 2000, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 19; i++) {
+            advance(100);
+        }
+        assertEquals(0, expired.get());
+
+        advance(100);
+        assertEquals(1, expired.get());
+    }
+
+    @Test
+    public void cancel() {
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(task, 100, TimeUnit.MILLISECONDS);
+        timer.newTimeout(task, 100, TimeUnit.MILLISECONDS);
+        timeout.cancel();
+        assertTrue(timeout.isCancelled());
+
+        advance(100);
+        assertEquals(1, expired.get());
+        assertFalse(timeout.isExpired());
+        assertEquals(0, timer.pendingTimeouts());
+    }
+
+    @Test
+    public void cancelAfterScheduled() {
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(task, 500, TimeUnit.MILLISECONDS);
+        advance(100);
+        assertEquals(1, timer.pendingTimeouts());
+
+        timeout.cancel();
+        advance(500);
+        assertEquals(0, expired.get());
+        assertEquals(0, timer.pendingTimeouts());
+    }
+
+    @Test
+    public void lateTick() {
+        timer.newTimeout(task, 100, TimeUnit.MILLISECONDS);
+        timer.newTimeout(task, 300, TimeUnit.MILLISECONDS);
+        timer.newTimeout(task, 5000, TimeUnit.MILLISECONDS);
+
+        // All the due timeouts expire even if the timer was not advanced for a while
+        advance(1000);
+        assertEquals(2, expired.get());
+        assertEquals(1, timer.pendingTimeouts());
+    }
+}
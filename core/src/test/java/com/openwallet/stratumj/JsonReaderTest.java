@@ -0,0 +1,97 @@
+package com.openwallet.stratumj;
+
+import com.google.common.base.Charsets;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author John L. Jegutanis
+ */
+public class JsonReaderTest {
+    private static JsonReader reader(String json) {
+        return new JsonReader(json.getBytes(Charsets.UTF_8));
+    }
+
+    @Test
+    public void readObjects() throws JSONException {
+        JsonReader reader = reader("[{\"tx_hash\": \"00ff\", \"height\": 160267, \"extra\": " +
+                "{\"a\": [1, \"b\\\"]\", null]}}, {\"value\": 12345678901}]");
+
+        reader.beginArray();
+        assertTrue(reader.hasNext());
+        reader.beginObject();
+        assertEquals("tx_hash", reader.nextName());
+        assertArrayEquals(new byte[]{0x00, (byte) 0xff}, reader.nextHex());
+        assertTrue(reader.hasNext());
+        assertEquals("height", reader.nextName());
+        assertEquals(160267, reader.nextInt());
+        assertTrue(reader.hasNext());
+        assertEquals("extra", reader.nextName());
+        reader.skipValue();
+        assertFalse(reader.hasNext());
+        reader.endObject();
+        assertTrue(reader.hasNext());
+        reader.beginObject();
+        assertEquals("value", reader.nextName());
+        assertEquals(12345678901L, reader.nextLong());
+        reader.endObject();
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        reader.endDocument();
+    }
+
+    @Test
+    public void readValues() throws JSONException {
+        JsonReader reader = reader("[\"a\\u00e9\", {\"b\": [true]}, null]");
+
+        reader.beginArray();
+        assertEquals("a\u00e9", reader.nextString());
+        JSONObject object = (JSONObject) reader.nextValue();
+        assertTrue(object.getJSONArray("b").getBoolean(0));
+        assertEquals(JSONObject.NULL, reader.nextValue());
+        reader.endArray();
+        reader.endDocument();
+    }
+
+    @Test
+    public void readEmpty() throws JSONException {
+        JsonReader reader = reader(" [ ] ");
+        reader.beginArray();
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        reader.endDocument();
+    }
+
+    @Test(expected = JSONException.class)
+    public void missingComma() throws JSONException {
+        JsonReader reader = reader("[1 2]");
+        reader.beginArray();
+        reader.nextInt();
+        reader.nextInt();
+    }
+
+    @Test(expected = JSONException.class)
+    public void trailingComma() throws JSONException {
+        JsonReader reader = reader("[1,]");
+        reader.beginArray();
+        reader.nextInt();
+        reader.hasNext();
+    }
+
+    @Test(expected = JSONException.class)
+    public void notHex() throws JSONException {
+        reader("\"0g\"").nextHex();
+    }
+
+    @Test(expected = JSONException.class)
+    public void skipTruncated() throws JSONException {
+        reader("[{\"a\": [1, 2}]").skipValue();
+    }
+}
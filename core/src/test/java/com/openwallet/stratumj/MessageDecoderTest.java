@@ -0,0 +1,176 @@
+package com.openwallet.stratumj;
+
+import com.openwallet.stratumj.messages.BaseMessage;
+import com.openwallet.stratumj.messages.CallMessage;
+import com.openwallet.stratumj.messages.ResultMessage;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author John L. Jegutanis
+ */
+public class MessageDecoderTest {
+    MessageDecoder decoder = new MessageDecoder();
+
+    private BaseMessage decode(String message) throws JSONException {
+        byte[] bytes = message.getBytes(Charsets.UTF_8);
+        return decoder.decode(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void decodeResult() throws JSONException {
+        BaseMessage message = decode("{\"id\": 12, \"result\": [{\"tx_hash\": " +
+                "\"ef39bda1e2b3d9d8dbda4c61ff1d4ec8a3e0e5d8e0ed8cbabed18f9d3b0b6843\", \"height\": 160267}]}");
+
+        assertTrue(message instanceof ResultMessage);
+        assertTrue(message.isResult());
+        assertEquals(12, message.getId());
+        JSONArray result = ((ResultMessage) message).getResult();
+        assertEquals(1, result.length());
+        JSONObject tx = result.getJSONObject(0);
+        assertEquals("ef39bda1e2b3d9d8dbda4c61ff1d4ec8a3e0e5d8e0ed8cbabed18f9d3b0b6843", tx.getString("tx_hash"));
+        assertEquals(160267, tx.getInt("height"));
+    }
+
+    @Test
+    public void decodeArrayResultReader() throws JSONException {
+        ResultMessage message = (ResultMessage) decode("{\"id\": 2, \"result\": [{\"height\": 7}]}");
+
+        assertTrue(message.isResult());
+        JsonReader reader = message.getResultReader();
+        reader.beginArray();
+        reader.beginObject();
+        assertEquals("height", reader.nextName());
+        assertEquals(7, reader.nextInt());
+        reader.endObject();
+        reader.endArray();
+        // The array is built when needed
+        assertEquals(7, message.getResult().getJSONObject(0).getInt("height"));
+    }
+
+    @Test
+    public void decodeNullResult() throws JSONException {
+        ResultMessage message = (ResultMessage) decode("{\"id\": 1, \"result\": null}");
+
+        assertEquals(1, message.getId());
+        assertTrue(message.getResult().isNull(0));
+    }
+
+    @Test
+    public void decodeCall() throws JSONException {
+        BaseMessage message = decode("{\"params\": [\"nhSDxGPcmJ8ByT4L9NGsqc5jtNWkmKVLQJ\", " +
+                "\"8ed2d0c4b5e4d5a8ef1b6c6c1ab8d9b9b2a5c1f7b4c9f2d1a1b5b7a2c1f3d6e9\"], " +
+                "\"method\": \"blockchain.address.subscribe\", \"id\": null}");
+
+        assertTrue(message instanceof CallMessage);
+        assertTrue(message.isCall());
+        assertEquals(-1, message.getId());
+        CallMessage call = (CallMessage) message;
+        assertEquals("blockchain.address.subscribe", call.getMethod());
+        assertEquals("nhSDxGPcmJ8ByT4L9NGsqc5jtNWkmKVLQJ", call.getParams().getString(0));
+        assertFalse(call.getParams().isNull(1));
+    }
+
+    @Test
+    public void decodeRawHexResult() throws JSONException {
+        String rawTx = Strings.repeat("0100ab", 50);
+        ResultMessage message = (ResultMessage) decode("{\"id\": 3, \"result\": \"" + rawTx + "\"}");
+
+        byte[] expected = new byte[150];
+        for (int i = 0; i < expected.length; i += 3) {
+            expected[i] = 0x01;
+            expected[i + 2] = (byte) 0xab;
+        }
+        assertTrue(message.isResult());
+        assertArrayEquals(expected, message.getRawResult());
+        // The string is recreated when needed
+        assertEquals(rawTx, message.getResult().getString(0));
+    }
+
+    @Test
+    public void decodeShortHexResult() throws JSONException {
+        String hash = "8ed2d0c4b5e4d5a8ef1b6c6c1ab8d9b9b2a5c1f7b4c9f2d1a1b5b7a2c1f3d6e9";
+        ResultMessage message = (ResultMessage) decode("{\"id\": 3, \"result\": \"" + hash + "\"}");
+
+        assertEquals(hash, message.getResult().getString(0));
+        assertEquals(32, message.getRawResult().length);
+    }
+
+    @Test
+    public void decodeEscapedStrings() throws JSONException {
+        ResultMessage message = (ResultMessage) decode(
+                "{\"id\": 4, \"result\": [\"a\\\"b\\\\c\\/d\\n\", \"\\u00e9t\\u00e9\", \"\u00e9t\u00e9\"]}");
+
+        JSONArray result = message.getResult();
+        assertEquals("a\"b\\c/d\n", result.getString(0));
+        assertEquals("\u00e9t\u00e9", result.getString(1));
+        assertEquals("\u00e9t\u00e9", result.getString(2));
+    }
+
+    @Test
+    public void decodeNumbersAndLiterals() throws JSONException {
+        ResultMessage message = (ResultMessage) decode(
+                "{\"id\": 5, \"result\": [-1, 12345678901, 0.5, 1e3, true, false, null, {}, []]}");
+
+        JSONArray result = message.getResult();
+        assertEquals(-1, result.getInt(0));
+        assertEquals(12345678901L, result.getLong(1));
+        assertEquals(0.5, result.getDouble(2), 0);
+        assertEquals(1000, result.getDouble(3), 0);
+        assertTrue(result.getBoolean(4));
+        assertFalse(result.getBoolean(5));
+        assertTrue(result.isNull(6));
+        assertEquals(0, result.getJSONObject(7).length());
+        assertEquals(0, result.getJSONArray(8).length());
+    }
+
+    @Test
+    public void decodeError() throws JSONException {
+        BaseMessage message = decode("{\"request\": \"Lorem ipsum dolor sit amet\", \"error\": \"bad JSON\"}");
+
+        assertTrue(message.errorOccured());
+        assertEquals("bad JSON", message.getError());
+        assertEquals("Lorem ipsum dolor sit amet", message.getFailedRequest());
+    }
+
+    @Test
+    public void decodeSlice() throws JSONException {
+        byte[] bytes = "xx{\"id\": 7, \"result\": 1}yy".getBytes(Charsets.UTF_8);
+        BaseMessage message = decoder.decode(bytes, 2, bytes.length - 4);
+
+        assertEquals(7, message.getId());
+        assertEquals(1, ((ResultMessage) message).getResult().getInt(0));
+    }
+
+    @Test(expected = JSONException.class)
+    public void decodeTruncated() throws JSONException {
+        decode("{\"id\": 7, \"result\": [1, 2");
+    }
+
+    @Test(expected = JSONException.class)
+    public void decodeUnterminatedString() throws JSONException {
+        byte[] bytes = "{\"id\": 7, \"result\": \"abc\"}".getBytes(Charsets.UTF_8);
+        // Cut the message in the middle of the string, the closing quote is past the end
+        decoder.decode(bytes, 0, 23);
+    }
+
+    @Test(expected = JSONException.class)
+    public void decodeTrailingData() throws JSONException {
+        decode("{\"id\": 7, \"result\": 1} 2");
+    }
+
+    @Test(expected = JSONException.class)
+    public void decodeMalformed() throws JSONException {
+        decode("not json");
+    }
+}
@@ -1,6 +1,7 @@
 package com.openwallet.wallet.ui;
 
 import android.content.Context;
+import android.content.DialogInterface;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
@@ -9,8 +10,10 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import com.openwallet.core.wallet.Wallet;
+import com.openwallet.core.wallet.WalletAccount;
 import com.openwallet.wallet.R;
 import com.openwallet.wallet.WalletApplication;
+import com.openwallet.wallet.util.UiUtils;
 
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.crypto.DeterministicKey;
@@ -83,6 +86,32 @@ public class DebuggingFragment extends Fragment {
         }
     }
 
+    @OnClick(R.id.button_show_sync_stats)
+    void onShowSyncStats() {
+        final String stats = getSyncStats();
+        DialogBuilder.warn(getActivity(), R.string.debugging_sync_stats)
+                .setMessage(stats)
+                .setNegativeButton(R.string.action_share, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        UiUtils.share(getActivity(), stats);
+                    }
+                })
+                .setPositiveButton(R.string.button_ok, null).create().show();
+    }
+
+    private String getSyncStats() {
+        StringBuilder sb = new StringBuilder();
+        for (WalletAccount account : wallet.getAllAccounts()) {
+            if (sb.length() > 0) sb.append("\n\n");
+            sb.append(account.getDescriptionOrCoinName())
+                    .append(" (").append(account.getCoinType().getSymbol()).append(")")
+                    .append("\nloading: ").append(account.isLoading())
+                    .append("\n").append(account.getSyncStats());
+        }
+        return sb.toString();
+    }
+
     private void showUnlockDialog() {
         Dialogs.dismissAllowingStateLoss(getFragmentManager(), PASSWORD_DIALOG_TAG);
         UnlockWalletDialog.getInstance().show(getFragmentManager(), PASSWORD_DIALOG_TAG);